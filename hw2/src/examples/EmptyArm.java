@@ -0,0 +1,69 @@
+package examples;
+
+import java.util.List;
+import joeq.Compiler.Quad.*;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+import joeq.Main.Helper;
+import joeq.Class.*;
+import flow.Intervals;
+import flow.ParallelDriver;
+import submit.SCCSolver;
+
+/*
+ * A probe for the branch refinement of Intervals.  The IFCMP_I of
+ * x < 5 in arm is made to jump to a new empty block that falls through
+ * to x++, so both of its edges end at the same quad, as after a pass
+ * that empties a block.  Neither condition holds on every way into
+ * x++ then, and the range printed must be [0, 10], not [0, 4].
+ *
+ *   ./run.sh examples.EmptyArm
+ */
+class EmptyArm {
+
+    static int arm(int x) {
+        if (x < 0 || x > 10) return 0;
+        if (x < 5) x++;
+        return x;
+    }
+
+    public static void main(String[] args) {
+        PrimordialClassLoader.loader.addToClasspath("lib/rt.jar");
+
+        jq_Class c = (jq_Class)Helper.load("examples.EmptyArm");
+        for (ControlFlowGraph cfg : ParallelDriver.getCFGs(c)) {
+            if (!cfg.getMethod().getName().toString().equals("arm")) continue;
+
+            // the last IFCMP_I is x < 5's.
+            Quad branch = null;
+            BasicBlock from = null;
+            QuadIterator qit = new QuadIterator(cfg);
+            while (qit.hasNext()) {
+                Quad q = qit.next();
+                if (q.getOperator() instanceof Operator.IntIfCmp) {
+                    branch = q;
+                    from = qit.getCurrentBasicBlock();
+                }
+            }
+            final BasicBlock fall = from.getFallthroughSuccessor();
+            BasicBlock target = Operator.IntIfCmp.getTarget(branch).getTarget();
+            BasicBlock empty = cfg.createBasicBlock(1, 1, 0, null);
+            List<BasicBlock> succs = from.getSuccessors();
+            succs.set(succs.indexOf(target), empty);
+            target.removePredecessor(from);
+            empty.addPredecessor(from);
+            empty.addSuccessor(fall);
+            fall.addPredecessor(empty);
+            Operator.IntIfCmp.getTarget(branch).setTarget(empty);
+
+            SCCSolver solver = new SCCSolver();
+            solver.registerAnalysis(new Intervals() {
+                public void postprocess(ControlFlowGraph cfg) {
+                    Quad inc = fall.getQuad(0);
+                    RegisterOperand x = (RegisterOperand) Operator.Binary.getSrc1(inc);
+                    System.out.println("x before x++: " + getRange(inc, x));
+                }
+            });
+            solver.visitCFG(cfg);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package flow;
+
+import java.util.Arrays;
+
+/**
+ * The strongly connected components of a QuadGraph, or of the part of
+ * it made of a given set of nodes, found with Tarjan's algorithm.
+ *
+ * Components are numbered 0..count()-1 in topological order: every
+ * edge between two components goes from a lower number to a higher
+ * one.  The nodes of each component are listed in increasing node
+ * number, which is the order QuadGraph sweeps them in, and
+ *
+ *     for (int k = c.begin(i); k < c.end(i); k++) {
+ *         int n = c.node(k);
+ *     }
+ *
+ * walks component i.  A component is a loop if it has more than one
+ * node or its node is its own successor; any other component can be
+ * solved with a single visit once the components before it are done.
+ */
+public class Components {
+
+    private final int[] start;
+    private final int[] nodes;
+    private final boolean[] loop;
+
+    /**
+     * Finds the components of the whole graph.
+     */
+    public Components(QuadGraph g) {
+        this(g, allNodes(g.size()));
+    }
+
+    /**
+     * Finds the components of the subgraph made of the given nodes,
+     * which must be in increasing order; edges to any other node are
+     * ignored.
+     */
+    public Components(QuadGraph g, int[] subset) {
+        int m = subset.length;
+        // local[v] is v's position in subset, or -1 outside it.
+        int[] local = new int[g.size()];
+        Arrays.fill(local, -1);
+        for (int i = 0; i < m; i++) {
+            local[subset[i]] = i;
+        }
+
+        // Tarjan's algorithm, with the recursion kept in call[] and the
+        // next successor edge of each node in edge[].  comp[] gets the
+        // components in the order they are completed, which is reverse
+        // topological.
+        int[] num = new int[m], low = new int[m], comp = new int[m];
+        int[] edge = new int[m], call = new int[m], stack = new int[m];
+        boolean[] onStack = new boolean[m];
+        int counter = 0, sp = 0, count = 0;
+        for (int root = 0; root < m; root++) {
+            if (num[root] != 0) continue;
+            int csp = 0;
+            num[root] = low[root] = ++counter;
+            edge[root] = g.succBegin(subset[root]);
+            stack[sp++] = root;
+            onStack[root] = true;
+            call[csp++] = root;
+            while (csp > 0) {
+                int v = call[csp - 1];
+                if (edge[v] < g.succEnd(subset[v])) {
+                    int w = local[g.succ(edge[v]++)];
+                    if (w < 0) continue;
+                    if (num[w] == 0) {
+                        num[w] = low[w] = ++counter;
+                        edge[w] = g.succBegin(subset[w]);
+                        stack[sp++] = w;
+                        onStack[w] = true;
+                        call[csp++] = w;
+                    } else if (onStack[w] && num[w] < low[v]) {
+                        low[v] = num[w];
+                    }
+                    continue;
+                }
+                csp--;
+                if (csp > 0 && low[v] < low[call[csp - 1]]) {
+                    low[call[csp - 1]] = low[v];
+                }
+                if (low[v] == num[v]) {
+                    int w;
+                    do {
+                        w = stack[--sp];
+                        onStack[w] = false;
+                        comp[w] = count;
+                    } while (w != v);
+                    count++;
+                }
+            }
+        }
+
+        // renumber the components in topological order and list their
+        // nodes, which come out sorted since subset is.
+        start = new int[count + 1];
+        for (int i = 0; i < m; i++) {
+            comp[i] = count - 1 - comp[i];
+            start[comp[i] + 1]++;
+        }
+        for (int c = 0; c < count; c++) {
+            start[c + 1] += start[c];
+        }
+        nodes = new int[m];
+        int[] fill = start.clone();
+        for (int i = 0; i < m; i++) {
+            nodes[fill[comp[i]]++] = subset[i];
+        }
+
+        loop = new boolean[count];
+        for (int c = 0; c < count; c++) {
+            if (start[c + 1] - start[c] > 1) {
+                loop[c] = true;
+                continue;
+            }
+            int v = nodes[start[c]];
+            for (int k = g.succBegin(v); k < g.succEnd(v); k++) {
+                if (g.succ(k) == v) loop[c] = true;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of components.
+     */
+    public int count() { return loop.length; }
+
+    public int begin(int c) { return start[c]; }
+    public int end(int c) { return start[c + 1]; }
+    public int node(int k) { return nodes[k]; }
+
+    /**
+     * Returns whether component c has a cycle, so that its values can
+     * change after its first visit.
+     */
+    public boolean isLoop(int c) { return loop[c]; }
+
+    private static int[] allNodes(int n) {
+        int[] all = new int[n];
+        for (int i = 0; i < n; i++) {
+            all[i] = i;
+        }
+        return all;
+    }
+}
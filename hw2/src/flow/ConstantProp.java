@@ -3,9 +3,10 @@ package flow;
 import java.util.*;
 import joeq.Compiler.Quad.*;
 import joeq.Compiler.Quad.Operand.*;
+import joeq.Compiler.Quad.RegisterFactory.Register;
 import joeq.Main.Helper;
 
-public class ConstantProp implements Flow.Analysis {
+public class ConstantProp implements Flow.InPlaceAnalysis {
 
     public static class SingleCP implements Flow.DataflowObject {
         private int state;
@@ -81,130 +82,242 @@ public class ConstantProp implements Flow.Analysis {
         public int getConst() { return constant; }
     }
 
-    public static class ConstantPropTable implements Flow.DataflowObject {
-        private SortedMap<String, SingleCP> map;
+    /**
+     * An immutable value of the constant lattice of one register.
+     * Values are interned: UNDEF and NAC are the only values in those
+     * states, and constants from CACHE_LOW to CACHE_HIGH come from a
+     * shared table, so comparing and meeting them is a reference
+     * comparison, and asking for one allocates nothing.  Other
+     * constants are made as needed and compared by value.
+     */
+    public static final class Value {
+        public static final Value UNDEF = new Value(0, 0);
+        public static final Value NAC = new Value(2, 0);
+
+        private static final int CACHE_LOW = -128, CACHE_HIGH = 1023;
+        private static final Value[] CACHE = new Value[CACHE_HIGH - CACHE_LOW + 1];
+        static {
+            for (int i = 0; i < CACHE.length; i++) {
+                CACHE[i] = new Value(1, CACHE_LOW + i);
+            }
+        }
+
+        private final int state;
+        private final int constant;
+
+        private Value(int state, int constant) {
+            this.state = state;
+            this.constant = constant;
+        }
+
+        /**
+         * Returns the value for the constant c.
+         */
+        public static Value of(int c) {
+            if (c >= CACHE_LOW && c <= CACHE_HIGH) return CACHE[c - CACHE_LOW];
+            return new Value(1, c);
+        }
+
+        /* The packed form ConstantPropTable stores: the state in the
+         * high word and the constant in the low word. */
+        static Value fromBits(long bits) {
+            int state = (int) (bits >>> 32);
+            return (state == 0) ? UNDEF : (state == 2) ? NAC : of((int) bits);
+        }
+
+        long bits() {
+            return ((long) state << 32) | (constant & 0xffffffffL);
+        }
+
+        /**
+         * Returns the meet of this value and o.
+         */
+        public Value meet(Value o) {
+            if (this == o || o == UNDEF) return this;
+            if (this == UNDEF) return o;
+            if (state == 1 && o.state == 1 && constant == o.constant) return this;
+            return NAC;
+        }
+
+        public boolean isUndef() { return state == 0; }
+        public boolean isConst() { return state == 1; }
+        public boolean isNAC() { return state == 2; }
+        public int getConst() { return constant; }
 
-        /* 'core' is used to keep track of which variables we need to
-         * track */
-        private static Set<String> core = new HashSet<String>();
-        public static void reset() { core.clear(); }
-        public static void register(String key) {
-            core.add(key);
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o instanceof Value) {
+                Value a = (Value) o;
+                return state == a.state && constant == a.constant;
+            }
+            return false;
+        }
+        @Override
+        public int hashCode() {
+            return 31 * state + constant;
+        }
+        @Override
+        public String toString() {
+            switch (state) {
+            case 0: return "undef";
+            case 1: return String.valueOf(constant);
+            default: return "NAC";
+            }
         }
+    }
 
-        public ConstantPropTable() {
-            map = new TreeMap<String, SingleCP>();
-            for (String key : core) {
-                map.put(key, new SingleCP());
+    public static class ConstantPropTable implements Flow.VersionedObject {
+        /* values.get(r) holds the lattice value of the register with
+         * index r in the context, packed as Value.bits gives it: the
+         * state in the high word (0 is undef, 1 a constant, 2 NAC) and
+         * the constant, if any, in the low word.  undef is 0, so a table of undefs is an
+         * empty trie, and tables copied from one another share every
+         * chunk of registers neither has changed since. */
+        private final PersistentLongArray values;
+        private final AnalysisContext context;
+
+        private static final long NAC = 2L << 32;
+
+        private static final PersistentLongArray.Merge MEET = new PersistentLongArray.Merge() {
+            public long merge(long mine, long theirs) {
+                if (mine == theirs || theirs == 0) return mine;
+                if (mine == 0) return theirs;
+                return NAC;
             }
+        };
+
+        /* The context keeps track of which variables we need to track. */
+        public ConstantPropTable(AnalysisContext context) {
+            this.context = context;
+            values = new PersistentLongArray(context.getNumRegisters());
         }
 
         public void setToTop() {
-            for (SingleCP lattice : map.values()) {
-                lattice.setToTop();
-            }
+            values.fill(0);
         }
 
         public void setToBottom() {
-            for (SingleCP lattice : map.values()) {
-                lattice.setToBottom();
-            }
+            values.fill(NAC);
         }
 
         public void meetWith(Flow.DataflowObject o) {
             ConstantPropTable a = (ConstantPropTable) o;
-            for (Map.Entry<String, SingleCP> e : a.map.entrySet()) {
-                SingleCP mine = map.get(e.getKey());
-                mine.meetWith(e.getValue());
-            }		
+            values.merge(a.values, MEET);
         }
 
         public void copy (Flow.DataflowObject o) {
             ConstantPropTable a = (ConstantPropTable) o;
-            for (Map.Entry<String, SingleCP> e : a.map.entrySet()) {
-                SingleCP mine = map.get(e.getKey());
-                mine.copy(e.getValue());
-            }		
+            values.copy(a.values);
         }
 
         @Override
         public String toString() {
-            return map.toString();
+            StringBuilder sb = new StringBuilder("{");
+            for (int r = 0; r < values.length(); r++) {
+                if (r > 0) sb.append(", ");
+                sb.append(context.getRegisterName(r)).append('=');
+                long v = values.get(r);
+                switch ((int) (v >>> 32)) {
+                case 0: sb.append("undef"); break;
+                case 1: sb.append((int) v); break;
+                default: sb.append("NAC"); break;
+                }
+            }
+            return sb.append('}').toString();
         }
 
+        /**
+         * Returns a copy of the lattice value of one register.
+         */
         public SingleCP get(String key) {
-            return map.get(key);
+            long v = values.get(context.getRegisterIndex(key));
+            SingleCP result = new SingleCP();
+            if (v == NAC) {
+                result.setNAC();
+            } else if (v != 0) {
+                result.setConst((int) v);
+            }
+            return result;
         }
 
         @Override
         public boolean equals (Object o) {
             if (o instanceof ConstantPropTable) {
-                return map.equals (((ConstantPropTable)o).map);
+                return values.equals(((ConstantPropTable) o).values);
             }
             return false;
         }
         @Override
         public int hashCode() {
-            return map.hashCode();
+            return values.hashCode();
+        }
+        public long getVersion() {
+            return values.getVersion();
         }
 
         public void setUndef(String key) {
-            get(key).setUndef();
+            values.set(context.getRegisterIndex(key), 0);
         }
         public void setConst(String key, int val) {
-            get(key).setConst(val);
+            values.set(context.getRegisterIndex(key), constant(val));
         }
         public void setNAC(String key) {
-            get(key).setNAC();
+            values.set(context.getRegisterIndex(key), NAC);
         }
         public void transfer(String key, String src) {
-            get(key).copy(get(src));
+            values.set(context.getRegisterIndex(key), values.get(context.getRegisterIndex(src)));
+        }
+
+        public void setUndef(Register key) {
+            values.set(context.getRegisterIndex(key), 0);
+        }
+        public void setConst(Register key, int val) {
+            values.set(context.getRegisterIndex(key), constant(val));
+        }
+        public void setNAC(Register key) {
+            values.set(context.getRegisterIndex(key), NAC);
+        }
+        public void transfer(Register key, Register src) {
+            values.set(context.getRegisterIndex(key), values.get(context.getRegisterIndex(src)));
+        }
+
+        /**
+         * Returns the lattice value of one register.
+         */
+        public Value getValue(Register key) {
+            return Value.fromBits(values.get(context.getRegisterIndex(key)));
+        }
+        public void setValue(Register key, Value v) {
+            values.set(context.getRegisterIndex(key), v.bits());
+        }
+
+        public boolean isUndef(Register key) { return values.get(context.getRegisterIndex(key)) == 0; }
+        public boolean isConst(Register key) { return (values.get(context.getRegisterIndex(key)) >>> 32) == 1; }
+        public boolean isNAC(Register key) { return values.get(context.getRegisterIndex(key)) == NAC; }
+        public int getConst(Register key) { return (int) values.get(context.getRegisterIndex(key)); }
+
+        private static long constant(int val) {
+            return (1L << 32) | (val & 0xffffffffL);
         }
     }
 
-    private ConstantPropTable[] in, out;
+    private FactStore facts;
     private ConstantPropTable entry, exit;
+    private AnalysisContext context;
 
     public void preprocess (ControlFlowGraph cfg) {
         System.out.println("Method: "+cfg.getMethod().getName().toString());
         /* Generate initial conditions. */
-        QuadIterator qit = new QuadIterator(cfg);
-        int max = 0;
-        while (qit.hasNext()) {
-            int x = qit.next().getID();
-            if (x > max) max = x;
-        }
-        max += 1;
-        in = new ConstantPropTable[max];
-        out = new ConstantPropTable[max];
-        qit = new QuadIterator(cfg);
+        /* The registers to track (arguments are always there) are
+         * kept in the context shared by all the tables of this CFG. */
+        context = new AnalysisContext(cfg);
 
-        ConstantPropTable.reset();
+        entry = new ConstantPropTable(context);
+        exit = new ConstantPropTable(context);
+        facts = new FactStore(context, this, transferfn);
 
-        /* Arguments are always there. */
         int numargs = cfg.getMethod().getParamTypes().length;
-        for (int i = 0; i < numargs; i++) {
-            ConstantPropTable.register("R"+i);
-        }
-
-        while (qit.hasNext()) {
-            Quad q = qit.next();
-            for (RegisterOperand def : q.getDefinedRegisters()) {
-                ConstantPropTable.register(def.getRegister().toString());
-            }
-            for (RegisterOperand use : q.getUsedRegisters()) {
-                ConstantPropTable.register(use.getRegister().toString());
-            }
-        }
-
-        entry = new ConstantPropTable();
-        exit = new ConstantPropTable();
-        transferfn.val = new ConstantPropTable();
-        for (int i=0; i<in.length; i++) {
-            in[i] = new ConstantPropTable();
-            out[i] = new ConstantPropTable();
-        }
-
         for (int i=0; i < numargs; i++) {
             entry.setNAC("R"+i);
         }
@@ -213,9 +326,9 @@ public class ConstantProp implements Flow.Analysis {
 
     public void postprocess (ControlFlowGraph cfg) {
         System.out.println("entry: "+entry.toString());
-        for (int i=0; i<in.length; i++) {
-            System.out.println(i+" in:  "+in[i].toString());
-            System.out.println(i+" out: "+out[i].toString());
+        for (int i=0; i<facts.size(); i++) {
+            System.out.println(i+" in:  "+facts.peekIn(i).toString());
+            System.out.println(i+" out: "+facts.peekOut(i).toString());
         }
         System.out.println("exit: "+exit.toString());
     }
@@ -235,21 +348,17 @@ public class ConstantProp implements Flow.Analysis {
         result.copy(exit); 
         return result;
     }
-    public Flow.DataflowObject getIn(Quad q) { 
-        Flow.DataflowObject result = newTempVar();
-        result.copy(in[q.getID()]); 
-        return result;
+    public Flow.DataflowObject getIn(Quad q) {
+        return facts.getIn(q);
     }
-    public Flow.DataflowObject getOut(Quad q) { 
-        Flow.DataflowObject result = newTempVar();
-        result.copy(out[q.getID()]); 
-        return result;
+    public Flow.DataflowObject getOut(Quad q) {
+        return facts.getOut(q);
     }
     public void setIn(Quad q, Flow.DataflowObject value) { 
-        in[q.getID()].copy(value); 
+        facts.setIn(q, value); 
     }
     public void setOut(Quad q, Flow.DataflowObject value) { 
-        out[q.getID()].copy(value); 
+        facts.setOut(q, value); 
     }
     public void setEntry(Flow.DataflowObject value) { 
         entry.copy(value); 
@@ -258,49 +367,55 @@ public class ConstantProp implements Flow.Analysis {
         exit.copy(value); 
     }
 
-    public Flow.DataflowObject newTempVar() { return new ConstantPropTable(); }
+    public Flow.DataflowObject peekEntry() { return entry; }
+    public Flow.DataflowObject peekExit() { return exit; }
+    public Flow.DataflowObject peekIn(Quad q) { return facts.peekIn(q); }
+    public Flow.DataflowObject peekOut(Quad q) { return facts.peekOut(q); }
+
+    public Flow.DataflowObject newTempVar() { return new ConstantPropTable(context); }
 
     /* Actually perform the transfer operation on the relevant
      * quad. */
 
     private TransferFunction transferfn = new TransferFunction ();
     public void processQuad(Quad q) {
-        transferfn.val.copy(in[q.getID()]);
-        Helper.runPass(q, transferfn);
-        out[q.getID()].copy(transferfn.val);
+        transfer(q);
+    }
+
+    public boolean transfer(Quad q) {
+        return facts.transfer(q);
     }
 
     /* The QuadVisitor that actually does the computation */
     public static class TransferFunction extends QuadVisitor.EmptyVisitor
+        implements FactStore.Transfer
     {
         ConstantPropTable val;
+        public void apply(Quad q, Flow.DataflowObject v) {
+            val = (ConstantPropTable) v;
+            Helper.runPass(q, this);
+        }
         @Override
         public void visitMove (Quad q) {
             Operand op = Operator.Move.getSrc(q);
-            String key = Operator.Move.getDest(q).getRegister().toString();
-
-            if (isUndef(op)) {
-                val.setUndef(key);
-            } else if (isConst(op)) {
-                val.setConst(key, getConst(op));
-            } else {
-                val.setNAC(key);
-            }
+            Register key = Operator.Move.getDest(q).getRegister();
+            val.setValue(key, value(op));
         }
         @Override
         public void visitBinary (Quad q) {
             Operand op1 =  Operator.Binary.getSrc1(q);
             Operand op2 =  Operator.Binary.getSrc2(q);
-            String key =   Operator.Binary.getDest(q).getRegister().toString();
+            Register key = Operator.Binary.getDest(q).getRegister();
             Operator opr = q.getOperator();
 
             if (opr == Operator.Binary.ADD_I.INSTANCE) {
-                if (isNAC(op1) || isNAC(op2)) {
+                Value a = value(op1), b = value(op2);
+                if (a.isNAC() || b.isNAC()) {
                     val.setNAC(key);
-                } else if (isUndef(op1) || isUndef(op2)) {
+                } else if (a.isUndef() || b.isUndef()) {
                     val.setUndef(key);
                 } else { // both must be constant!
-                    val.setConst(key, getConst(op1)+getConst(op2));
+                    val.setConst(key, a.getConst()+b.getConst());
                 }
             } else {
                 val.setNAC(key);
@@ -309,16 +424,15 @@ public class ConstantProp implements Flow.Analysis {
         @Override
         public void visitUnary (Quad q) {
             Operand op = Operator.Unary.getSrc(q);
-            String key = Operator.Unary.getDest(q).getRegister().toString();
+            Register key = Operator.Unary.getDest(q).getRegister();
             Operator opr = q.getOperator();
 
             if (opr == Operator.Unary.NEG_I.INSTANCE) {
-                if (isUndef(op)) {
-                    val.setUndef(key);
-                } else if (isConst(op)) {
-                    val.setConst(key, -getConst(op));
+                Value a = value(op);
+                if (a.isConst()) {
+                    val.setConst(key, -a.getConst());
                 } else {
-                    val.setNAC(key);
+                    val.setValue(key, a);
                 }
             } else {
                 val.setNAC(key);
@@ -327,43 +441,43 @@ public class ConstantProp implements Flow.Analysis {
 
         @Override
         public void visitALoad(Quad q) {
-            String key = Operator.ALoad.getDest(q).getRegister().toString();
+            Register key = Operator.ALoad.getDest(q).getRegister();
             val.setNAC(key);
         }
 
         @Override
         public void visitALength(Quad q) {
-            String key = Operator.ALength.getDest(q).getRegister().toString();
+            Register key = Operator.ALength.getDest(q).getRegister();
             val.setNAC(key);
         }
 
         @Override
         public void visitGetstatic(Quad q) {
-            String key = Operator.Getstatic.getDest(q).getRegister().toString();
+            Register key = Operator.Getstatic.getDest(q).getRegister();
             val.setNAC(key);
         }
 
         @Override
         public void visitGetfield(Quad q) {
-            String key = Operator.Getfield.getDest(q).getRegister().toString();
+            Register key = Operator.Getfield.getDest(q).getRegister();
             val.setNAC(key);
         }
 
         @Override
         public void visitInstanceOf(Quad q) {
-            String key = Operator.InstanceOf.getDest(q).getRegister().toString();
+            Register key = Operator.InstanceOf.getDest(q).getRegister();
             val.setNAC(key);
         }
 
         @Override
         public void visitNew(Quad q) {
-            String key = Operator.New.getDest(q).getRegister().toString();
+            Register key = Operator.New.getDest(q).getRegister();
             val.setNAC(key);
         }
 
         @Override
         public void visitNewArray(Quad q) {
-            String key = Operator.NewArray.getDest(q).getRegister().toString();
+            Register key = Operator.NewArray.getDest(q).getRegister();
             val.setNAC(key);
         }
 
@@ -371,49 +485,33 @@ public class ConstantProp implements Flow.Analysis {
         public void visitInvoke(Quad q) {
             RegisterOperand op = Operator.Invoke.getDest(q);
             if (op != null) {
-                String key = op.getRegister().toString();
+                Register key = op.getRegister();
                 val.setNAC(key);
             }
         }
 
         @Override
         public void visitJsr(Quad q) {
-            String key = Operator.Jsr.getDest(q).getRegister().toString();
+            Register key = Operator.Jsr.getDest(q).getRegister();
             val.setNAC(key);
         }
 
         @Override
         public void visitCheckCast(Quad q) {
-            String key = Operator.CheckCast.getDest(q).getRegister().toString();
+            Register key = Operator.CheckCast.getDest(q).getRegister();
             val.setNAC(key);
         }
 
-        private boolean isUndef (Operand op) {
-            return (op instanceof RegisterOperand && 
-                    val.get(((RegisterOperand)op).getRegister().toString()).isUndef());
-        }
-
-        private boolean isConst (Operand op) {
-            return (op instanceof IConstOperand) || 
-            (op instanceof RegisterOperand && 
-                    val.get(((RegisterOperand)op).getRegister().toString()).isConst());
-        }
-
-        private boolean isNAC (Operand op) {
-            return (op instanceof RegisterOperand && 
-                    val.get(((RegisterOperand)op).getRegister().toString()).isNAC());
-        }
-
-        private int getConst (Operand op) {
+        /* The lattice value of an operand: a register's is in the
+         * table, an int constant is itself, and anything else is NAC. */
+        private Value value (Operand op) {
             if (op instanceof IConstOperand) {
-                return ((IConstOperand)op).getValue();
+                return Value.of(((IConstOperand)op).getValue());
             }
             if (op instanceof RegisterOperand) {
-                SingleCP o = val.get(((RegisterOperand)op).getRegister().toString());
-                if (o.state == 1)
-                    return o.getConst();
+                return val.getValue(((RegisterOperand)op).getRegister());
             }
-            throw new IllegalArgumentException("Tried to getConst a non-Const!");
+            return Value.NAC;
         }
     }
 }
@@ -1,5 +1,7 @@
 package flow;
 
+import java.util.ArrayList;
+import java.util.List;
 import joeq.Main.Helper;
 import joeq.Class.*;
 import joeq.Compiler.Quad.*;
@@ -19,6 +21,44 @@ public abstract class Flow {
          */
     }
 
+    /**
+     * Optional extension of DataflowObject for values that count their
+     * own changes.  The version must change whenever the value does,
+     * and copying an equal value (or meeting with one that adds
+     * nothing) must leave it alone, so comparing two versions of the
+     * same object tells whether it changed in between without keeping
+     * a copy of it or calling equals.
+     */
+    public static interface VersionedObject extends DataflowObject {
+        long getVersion();
+    }
+
+    /**
+     * Optional extension of DataflowObject for lattices of infinite
+     * height, on which meeting alone need not reach a fixpoint.  A
+     * solver that finds loops combines the value at a loop head with
+     * the meet of the values flowing into it by widening, until the
+     * loop is stable, and then by narrowing, to win back some of the
+     * precision the widening gave up.  Values move down from top, so
+     * widening moves them further down than the meet would.
+     */
+    public static interface WideningObject extends DataflowObject {
+        /**
+         * Replaces this value, the one kept at a loop head, by one
+         * at or below both it and o, the meet flowing in.  Any
+         * sequence of values built by repeated widening must become
+         * constant after finitely many steps.
+         */
+        void widenWith(DataflowObject o);
+        /**
+         * Replaces this value, the one kept at a loop head, by one at
+         * or above it and at or below o, the meet flowing in.  Any
+         * sequence of values built by repeated narrowing must become
+         * constant after finitely many steps.
+         */
+        void narrowWith(DataflowObject o);
+    }
+
     public static interface Analysis {
 
         /* Analysis-specific customization.  You can use these to
@@ -79,6 +119,57 @@ public abstract class Flow {
         void processQuad(Quad q);
     }
 
+    /**
+     * Optional extension of Analysis for solvers that work on the
+     * stored dataflow values directly instead of on copies.  The
+     * objects returned by the peek methods belong to the analysis: a
+     * solver may overwrite or meet into the IN value of a quad (OUT
+     * for backward analyses) and the exit (entry) value, and must
+     * treat the rest as read-only.
+     */
+    public static interface InPlaceAnalysis extends Analysis {
+
+        /**
+         * Returns the stored entry value
+         **/
+        DataflowObject peekEntry();
+        /**
+         * Returns the stored exit value
+         **/
+        DataflowObject peekExit();
+        /**
+         * Returns the stored IN value of a quad
+         **/
+        DataflowObject peekIn(Quad q);
+        /**
+         * Returns the stored OUT value of a quad
+         **/
+        DataflowObject peekOut(Quad q);
+
+        /**
+         * Performs the transfer operation on the given quad, like
+         * processQuad, and returns whether the value it computed
+         * (OUT, or IN for backward analyses) changed.
+         **/
+        boolean transfer(Quad q);
+    }
+
+    /**
+     * Optional extension of Analysis for analyses that learn something
+     * from the way control leaves a quad, such as which way a
+     * conditional branch went.  A solver that supports it passes each
+     * value through refine before meeting it into a quad of another
+     * block.
+     */
+    public static interface EdgeAnalysis extends Analysis {
+        /**
+         * Narrows value, the OUT value of quad from (IN for backward
+         * analyses), to what holds on the edge from it to block to.
+         * Setting it to top says the edge is never taken.
+         **/
+        void refine(Quad from, BasicBlock to, DataflowObject value);
+    }
+
     public static interface Solver extends ControlFlowGraphVisitor {
         void visitCFG(ControlFlowGraph cfg);
         void registerAnalysis(Analysis a);
@@ -125,13 +216,25 @@ public abstract class Flow {
         for (int i=0; i < classes.length; i++)
             classes[i] = (jq_Class)Helper.load(args[i+2]);
 
-        // register the analysis with the solver.
-        solver.registerAnalysis(analysis);
+        // visit the methods of all the specified classes, with one
+        // solver and analysis per worker thread.
+        ParallelDriver driver = new ParallelDriver(solver.getClass(),
+            analysis.getClass(), ParallelDriver.defaultThreads());
+        List<ControlFlowGraph> cfgs = new ArrayList<ControlFlowGraph>();
+        int[] firstCFG = new int[classes.length + 1];
+        for (int i=0; i < classes.length; i++) {
+            firstCFG[i] = cfgs.size();
+            cfgs.addAll(ParallelDriver.getCFGs(classes[i]));
+        }
+        firstCFG[classes.length] = cfgs.size();
+        String[] output = driver.run(cfgs);
 
-        // visit each of the specified classes with the solver.
+        // print the output in the order a single thread would have.
         for (int i=0; i < classes.length; i++) {
             System.out.println("Now analyzing " + classes[i].getName());
-            Helper.runPass(classes[i], solver);
+            for (int j = firstCFG[i]; j < firstCFG[i+1]; j++) {
+                System.out.print(output[j]);
+            }
         }
     }
 }
@@ -0,0 +1,208 @@
+package flow;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import joeq.Class.jq_Class;
+import joeq.Compiler.Quad.*;
+import joeq.Main.Helper;
+
+/**
+ * Runs a solver and analysis over many methods at once on a fixed
+ * pool of worker threads.
+ *
+ * Every worker thread gets its own solver and analysis instance, made
+ * from the classes given to the constructor.  Whatever an analysis
+ * prints to System.out while visiting a method is collected per method
+ * and handed back in the order the methods were given, so callers can
+ * print it exactly as a sequential run would have.  What it prints to
+ * System.err, such as the -Dflow.stats lines, is collected the same
+ * way and written to System.err in that order before run returns.
+ *
+ * The CFGs are built (and the classes they mention loaded) on the
+ * calling thread first, since joeq's class loader and code cache are
+ * not thread-safe.  Analyses must not share mutable static state.
+ */
+public class ParallelDriver {
+
+    private final Class<?> solverClass, analysisClass;
+    private final int threads;
+
+    /**
+     * @param solverClass   A Flow.Solver with a no-argument constructor
+     * @param analysisClass A Flow.Analysis with a no-argument constructor
+     * @param threads       Number of worker threads; 1 runs everything
+     *                      on the calling thread
+     */
+    public ParallelDriver(Class<?> solverClass, Class<?> analysisClass, int threads) {
+        this.solverClass = solverClass;
+        this.analysisClass = analysisClass;
+        this.threads = threads;
+    }
+
+    /**
+     * Returns the number of threads to use when none is given: the
+     * flow.threads system property, or one per available processor.
+     */
+    public static int defaultThreads() {
+        return Integer.getInteger("flow.threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns the CFGs of the methods of a class, in the order
+     * Helper.runPass would visit them.
+     */
+    public static List<ControlFlowGraph> getCFGs(jq_Class c) {
+        final List<ControlFlowGraph> cfgs = new ArrayList<ControlFlowGraph>();
+        Helper.runPass(c, new ControlFlowGraphVisitor() {
+            public void visitCFG(ControlFlowGraph cfg) {
+                cfgs.add(cfg);
+            }
+        });
+        return cfgs;
+    }
+
+    /**
+     * Runs the analysis over every CFG and returns what it printed for
+     * each of them, in the same order.
+     */
+    public String[] run(List<ControlFlowGraph> cfgs) {
+        String[] output = new String[cfgs.size()];
+        final String[] errors = new String[cfgs.size()];
+        PrintStream original = System.out, originalErr = System.err;
+        final RoutingStream routing = new RoutingStream(original);
+        final RoutingStream errRouting = new RoutingStream(originalErr);
+        System.setOut(new PrintStream(routing, true));
+        System.setErr(new PrintStream(errRouting, true));
+        try {
+            if (threads <= 1) {
+                for (int i = 0; i < cfgs.size(); i++) {
+                    output[i] = visit(cfgs.get(i), routing, errRouting, errors, i);
+                }
+            } else {
+                for (ControlFlowGraph cfg : cfgs) {
+                    prepare(cfg);
+                }
+                ExecutorService pool = Executors.newFixedThreadPool(threads);
+                try {
+                    List<Future<String>> visits = new ArrayList<Future<String>>();
+                    for (int i = 0; i < cfgs.size(); i++) {
+                        final ControlFlowGraph cfg = cfgs.get(i);
+                        final int index = i;
+                        visits.add(pool.submit(new Callable<String>() {
+                            public String call() {
+                                return visit(cfg, routing, errRouting, errors, index);
+                            }
+                        }));
+                    }
+                    for (int i = 0; i < visits.size(); i++) {
+                        output[i] = result(visits.get(i));
+                    }
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        } finally {
+            System.setOut(original);
+            System.setErr(originalErr);
+            for (String e : errors) {
+                if (e != null) originalErr.print(e);
+            }
+            originalErr.flush();
+        }
+        return output;
+    }
+
+    /* Visits one CFG with this thread's solver and returns its output,
+     * leaving what it wrote to System.err in errors[index]. */
+    private String visit(ControlFlowGraph cfg, RoutingStream routing, RoutingStream errRouting,
+                         String[] errors, int index) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        ByteArrayOutputStream errBuffer = new ByteArrayOutputStream();
+        routing.capture(buffer);
+        errRouting.capture(errBuffer);
+        try {
+            solvers.get().visitCFG(cfg);
+            System.out.flush();
+            System.err.flush();
+        } finally {
+            routing.capture(null);
+            errRouting.capture(null);
+            errors[index] = errBuffer.toString();
+        }
+        return buffer.toString();
+    }
+
+    /* Waits for one visit and rethrows whatever it threw. */
+    private static String result(Future<String> visit) {
+        try {
+            return visit.get();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /* Walks the quad graph once, which loads every exception class the
+     * solver will ask about. */
+    private static void prepare(ControlFlowGraph cfg) {
+        QuadIterator qit = new QuadIterator(cfg);
+        while (qit.hasNext()) {
+            qit.next();
+            qit.successors1();
+            qit.predecessors1();
+        }
+    }
+
+    private Flow.Solver newSolver() {
+        try {
+            Flow.Solver solver = (Flow.Solver) solverClass.newInstance();
+            solver.registerAnalysis((Flow.Analysis) analysisClass.newInstance());
+            return solver;
+        } catch (Exception ex) {
+            throw new RuntimeException("Could not instantiate " + solverClass.getName()
+                + " with " + analysisClass.getName(), ex);
+        }
+    }
+
+    /* One solver (and analysis) per worker thread. */
+    private final ThreadLocal<Flow.Solver> solvers = new ThreadLocal<Flow.Solver>() {
+        protected Flow.Solver initialValue() {
+            return newSolver();
+        }
+    };
+
+    /* Sends each thread's writes to the buffer it is capturing into,
+     * or to the original stream if it is not capturing. */
+    private static class RoutingStream extends OutputStream {
+        private final OutputStream original;
+        private final ThreadLocal<OutputStream> target = new ThreadLocal<OutputStream>();
+
+        RoutingStream(OutputStream original) { this.original = original; }
+
+        void capture(OutputStream buffer) { target.set(buffer); }
+
+        private OutputStream target() {
+            OutputStream t = target.get();
+            return t != null ? t : original;
+        }
+
+        public void write(int b) throws java.io.IOException { target().write(b); }
+        public void write(byte[] b, int off, int len) throws java.io.IOException {
+            target().write(b, off, len);
+        }
+        public void flush() throws java.io.IOException { target().flush(); }
+    }
+}
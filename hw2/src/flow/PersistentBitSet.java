@@ -0,0 +1,131 @@
+package flow;
+
+/**
+ * A set of ints 0..size-1 that shares its structure with the sets it
+ * was copied from; see PersistentLongArray, which holds its words.
+ *
+ * copy is O(1), and adding or removing a member copies one path of
+ * the trie, so a chain of sets that each differ from the last in a
+ * few members costs little more than the first.  or merges the two
+ * tries and reuses every subtree it does not change.  The operations
+ * that modify the set return whether any member changed, and every
+ * change also advances its version.
+ */
+public class PersistentBitSet {
+
+    private static final PersistentLongArray.Merge OR = new PersistentLongArray.Merge() {
+        public long merge(long mine, long theirs) { return mine | theirs; }
+    };
+
+    private final PersistentLongArray words;
+
+    public PersistentBitSet(int size) {
+        words = new PersistentLongArray((size + 63) >>> 6);
+    }
+
+    /**
+     * Returns a number that changes whenever the members do, and only
+     * then.
+     */
+    public long getVersion() { return words.getVersion(); }
+
+    public boolean contains(int i) {
+        return (words.get(i >>> 6) & (1L << i)) != 0;
+    }
+
+    public boolean add(int i) {
+        return words.set(i >>> 6, words.get(i >>> 6) | (1L << i));
+    }
+
+    public boolean remove(int i) {
+        return words.set(i >>> 6, words.get(i >>> 6) & ~(1L << i));
+    }
+
+    /**
+     * Removes every member; returns whether this set changed.
+     */
+    public boolean clear() { return words.fill(0); }
+
+    /**
+     * Returns the smallest member that is at least from, or -1 if
+     * there is none.
+     */
+    public int next(int from) {
+        int w = from >>> 6;
+        long word = words.get(w) & (-1L << from);
+        while (word == 0) {
+            w = words.nextNonZero(w + 1);
+            if (w < 0) return -1;
+            word = words.get(w);
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * Makes this set hold exactly the members of o; returns whether
+     * this set changed.
+     */
+    public boolean copy(PersistentBitSet o) {
+        return words.copy(o.words);
+    }
+
+    /**
+     * Adds the members of o; returns whether this set changed.
+     */
+    public boolean or(PersistentBitSet o) {
+        return words.merge(o.words, OR);
+    }
+
+    /**
+     * Removes the members of o; returns whether this set changed.
+     * Only the words o's runs cover are looked at, each set once with
+     * the bits of every run in it.
+     */
+    public boolean andNot(RunBitmap o) {
+        boolean changed = false;
+        int w = -1;
+        long mask = 0;
+        for (int k = 0; k < o.runCount(); k++) {
+            int start = o.runStart(k), last = o.runEnd(k) - 1;
+            for (int v = start >>> 6; v <= last >>> 6; v++) {
+                long bits = -1L;
+                if (v == start >>> 6) bits &= -1L << start;
+                if (v == last >>> 6) bits &= -1L >>> (63 - (last & 63));
+                if (v != w) {
+                    if (mask != 0) changed |= words.set(w, words.get(w) & ~mask);
+                    w = v;
+                    mask = 0;
+                }
+                mask |= bits;
+            }
+        }
+        if (mask != 0) changed |= words.set(w, words.get(w) & ~mask);
+        return changed;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof PersistentBitSet) {
+            return words.equals(((PersistentBitSet) o).words);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return words.hashCode();
+    }
+
+    /**
+     * Lists the members like a sorted collection would: "[1, 2, 5]".
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = next(0); i >= 0; i = next(i + 1)) {
+            if (sb.length() > 1) sb.append(", ");
+            sb.append(i);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -4,42 +4,55 @@ package submit;
 import java.util.*;
 import joeq.Compiler.Quad.*;
 import joeq.Compiler.Quad.Operand.RegisterOperand;
+import flow.AnalysisContext;
+import flow.FactStore;
+import flow.PersistentBitSet;
+import flow.RunBitmap;
 import flow.Flow;
 
 /**
  * Skeleton class for implementing a reaching definition analysis
  * using the Flow.Analysis interface.
  */
-public class ReachingDefs implements Flow.Analysis {
+public class ReachingDefs implements Flow.InPlaceAnalysis {
 
     /**
      * Class for the dataflow objects in the ReachingDefs analysis.
      * You are free to change this class or move it to another file.
      */
-    public static class DefSet implements Flow.DataflowObject {
+    public static class DefSet implements Flow.VersionedObject {
 
-        private Set<Integer> set;
-        public static Set<Integer> universalSet;
-        public DefSet() { set = new TreeSet<Integer>(); }
+        /* Holds the context's quad indices rather than quad IDs.
+         * Persistent, so copies share their structure and a transfer
+         * only copies the part of the set it changes. */
+        private final PersistentBitSet set;
+        private final AnalysisContext context;
+        public DefSet(AnalysisContext context) {
+            this.context = context;
+            set = new PersistentBitSet(context.getNumQuads());
+        }
 
         /**
          * Methods from the Flow.DataflowObject interface.
          * See Flow.java for the meaning of these methods.
          * These need to be filled in.
          */
-        public void setToTop() { set = new TreeSet<Integer>(); }
-        public void setToBottom() { set = new TreeSet<Integer>(universalSet); }
+        public void setToTop() { set.clear(); }
+        public void setToBottom() {
+            set.clear();
+            for (int i = 0; i < context.getNumQuads(); i++) set.add(i);
+        }
 
         public void meetWith(Flow.DataflowObject o) 
         {
             DefSet a = (DefSet)o;
-            set.addAll(a.set);
+            set.or(a.set);
         }
 
         public void copy(Flow.DataflowObject o) 
         {
             DefSet a = (DefSet) o;
-            set = new TreeSet<Integer>(a.set);
+            set.copy(a.set);
         }
 
         /**
@@ -66,26 +79,37 @@ public class ReachingDefs implements Flow.Analysis {
         public int hashCode() {
             return set.hashCode();
         }
+        public long getVersion() {
+            return set.getVersion();
+        }
         @Override
         public String toString() 
         {
-            return set.toString();
+            // quad indices are in ID order, so the IDs come out sorted.
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = set.next(0); i >= 0; i = set.next(i + 1)) {
+                if (sb.length() > 1) sb.append(", ");
+                sb.append(context.getQuad(i).getID());
+            }
+            return sb.append(']').toString();
         }
 
-        public void genVar(Integer v) {set.add(v);}
-        public void killVar(Integer v) {set.remove(v);}
+        public void genVar(Quad q) {set.add(context.getQuadIndex(q));}
+        public void killVar(Quad q) {set.remove(context.getQuadIndex(q));}
+        public void killAll(RunBitmap defs) {set.andNot(defs);}
     }
 
     /**
      * Dataflow objects for the interior and entry/exit points
-     * of the CFG. in[ID] and out[ID] store the entry and exit
-     * state for the input and output of the quad with identifier ID.
+     * of the CFG. facts stores the entry and exit state for the
+     * input and output of every quad; see FactStore.
      *
      * You are free to modify these fields, just make sure to
      * preserve the data printed by postprocess(), which relies on these.
      */
-    private DefSet[] in, out;
+    private FactStore facts;
     private DefSet entry, exit;
+    private AnalysisContext context;
 
     /**
      * This method initializes the datflow framework.
@@ -96,58 +120,34 @@ public class ReachingDefs implements Flow.Analysis {
         // this line must come first.
         System.out.println("Method: "+cfg.getMethod().getName().toString());
 
-        // get the amount of space we need to allocate for the in/out arrays.
-        QuadIterator qit = new QuadIterator(cfg);
-        int max = 0;
-        while (qit.hasNext()) {
-            int id = qit.next().getID();
-            if (id > max)
-                max = id;
-        }
-        max += 1;
-
-        // allocate the in and out arrays.
-        in = new DefSet[max];
-        out = new DefSet[max];
-        transferfn.val = new DefSet();
-        transferfn.reg2ID = new TreeMap<String, TreeSet<Integer>>();
+        context = new AnalysisContext(cfg);
+        transferfn.context = context;
+        transferfn.kill = new RunBitmap[context.getNumRegisters()];
 
-        // initialize the contents of in and out.
-        qit = new QuadIterator(cfg);
+        QuadIterator qit = new QuadIterator(cfg);
         while (qit.hasNext()) {
             Quad q = qit.next();
-            int id = q.getID();
-            in[id] = new DefSet();
-            out[id] = new DefSet();
+            // kill[r] holds the index of every quad that defines
+            // register r.
             for (RegisterOperand def : q.getDefinedRegisters()) {
-                String reg = def.getRegister().toString();
-                if (transferfn.reg2ID.containsKey(reg)) {
-                    transferfn.reg2ID.get(reg).add(id);
-                }
-                else {
-                    TreeSet<Integer> idSet = new TreeSet<Integer>();
-                    idSet.add(id);
-                    transferfn.reg2ID.put(reg, idSet);
+                int reg = context.getRegisterIndex(def.getRegister());
+                if (transferfn.kill[reg] == null) {
+                    transferfn.kill[reg] = new RunBitmap();
                 }
+                transferfn.kill[reg].add(context.getQuadIndex(q));
             }
         }
 
+        // allocate the in and out values.
+        facts = new FactStore(context, this, transferfn);
+
         // initialize the entry and exit points.
-        entry = new DefSet();
-        exit = new DefSet();
+        entry = new DefSet(context);
+        exit = new DefSet(context);
 
         /************************************************
          * Your remaining initialization code goes here *
          ************************************************/
-
-        Set<Integer> s = new TreeSet<Integer>();
-        DefSet.universalSet = s;
-
-        for (int i = 0; i < max; i++) {
-            s.add(i);
-        }
-
-
     }
 
     /**
@@ -161,10 +161,10 @@ public class ReachingDefs implements Flow.Analysis {
      */
     public void postprocess (ControlFlowGraph cfg) {
         System.out.println("entry: " + entry.toString());
-        for (int i=0; i<in.length; i++) {
-            if (in[i] != null) {
-                System.out.println(i + " in:  " + in[i].toString());
-                System.out.println(i + " out: " + out[i].toString());
+        for (int i=0; i<facts.size(); i++) {
+            if (facts.getQuad(i) != null) {
+                System.out.println(i + " in:  " + facts.peekIn(i).toString());
+                System.out.println(i + " out: " + facts.peekOut(i).toString());
             }
         }
         System.out.println("exit: " + exit.toString());
@@ -194,23 +194,19 @@ public class ReachingDefs implements Flow.Analysis {
     }
     public Flow.DataflowObject getIn(Quad q) 
     {
-        Flow.DataflowObject result = newTempVar();
-        result.copy(in[q.getID()]); 
-        return result;
+        return facts.getIn(q);
     }
     public Flow.DataflowObject getOut(Quad q) 
     {
-        Flow.DataflowObject result = newTempVar();
-        result.copy(out[q.getID()]); 
-        return result;
+        return facts.getOut(q);
     }
     public void setIn(Quad q, Flow.DataflowObject value) 
     { 
-        in[q.getID()].copy(value); 
+        facts.setIn(q, value); 
     }
     public void setOut(Quad q, Flow.DataflowObject value) 
     { 
-        out[q.getID()].copy(value); 
+        facts.setOut(q, value); 
     }
     public void setEntry(Flow.DataflowObject value) 
     { 
@@ -221,32 +217,43 @@ public class ReachingDefs implements Flow.Analysis {
         exit.copy(value); 
     }
 
-    public Flow.DataflowObject newTempVar() { return new DefSet(); }
+    public Flow.DataflowObject peekEntry() { return entry; }
+    public Flow.DataflowObject peekExit() { return exit; }
+    public Flow.DataflowObject peekIn(Quad q) { return facts.peekIn(q); }
+    public Flow.DataflowObject peekOut(Quad q) { return facts.peekOut(q); }
+
+    public Flow.DataflowObject newTempVar() { return new DefSet(context); }
 
     /* Actually perform the transfer operation on the relevant
      * quad. */
 
     private TransferFunction transferfn = new TransferFunction ();
     public void processQuad(Quad q) {
-        transferfn.val.copy(in[q.getID()]);
-        transferfn.visitQuad(q);
-        out[q.getID()].copy(transferfn.val);
+        transfer(q);
+    }
+
+    public boolean transfer(Quad q) {
+        return facts.transfer(q);
     }
 
     /* The QuadVisitor that actually does the computation */
-    public static class TransferFunction extends QuadVisitor.EmptyVisitor {
+    public static class TransferFunction extends QuadVisitor.EmptyVisitor implements FactStore.Transfer {
         DefSet val;
-        TreeMap<String, TreeSet<Integer>> reg2ID;
+        AnalysisContext context;
+        RunBitmap[] kill;
+
+        public void apply(Quad q, Flow.DataflowObject v) {
+            val = (DefSet) v;
+            visitQuad(q);
+        }
 
         @Override
         public void visitQuad(Quad q) {
             for (RegisterOperand def : q.getDefinedRegisters()) {
-                for (Integer id : reg2ID.get(def.getRegister().toString())) {
-                    val.killVar(id);
-                }
+                val.killAll(kill[context.getRegisterIndex(def.getRegister())]);
             }
-            for (RegisterOperand def : q.getDefinedRegisters()) {
-                val.genVar(q.getID());
+            if (!q.getDefinedRegisters().isEmpty()) {
+                val.genVar(q);
             }
         }
     }
@@ -0,0 +1,201 @@
+package flow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import joeq.Compiler.Quad.*;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+import joeq.Compiler.Quad.RegisterFactory.Register;
+
+/**
+ * Per-CFG state shared by all the dataflow objects of one analysis
+ * run: the registers and quads their lattices range over.
+ *
+ * An analysis builds one in preprocess and passes it to every
+ * dataflow object it creates, instead of keeping the universe in a
+ * static field.  Two analyses (or two methods) never share one, so
+ * they can run interleaved or on different threads.
+ *
+ * The registers are also interned: each name gets a dense index
+ * 0..getNumRegisters()-1, in sorted name order, so a set of
+ * registers can be a BitVector whose bits come out in the order the
+ * names print.  Registers are identified by name, as toString gives
+ * it, so two Register objects for the same local share an index.
+ *
+ * Quads are numbered the same way, 0..getNumQuads()-1 in ID order,
+ * so per-quad arrays need not be sized by the largest ID, which
+ * leaves holes wherever quads were removed.  Anything printed is
+ * still keyed by quad ID.  The index of an ID is looked up in a hash
+ * table sized by the number of quads too, since the passes that add
+ * quads take new IDs past the largest one.
+ */
+public class AnalysisContext {
+
+    private final ControlFlowGraph cfg;
+    private final SortedSet<String> registers;
+    private final SortedSet<Integer> quadIDs;
+    private final String[] registerNames;
+    private final Map<String, Integer> registerIndex;
+    private final Map<Register, Integer> registerCache;
+    private final Quad[] quads;
+    /* Open-addressed table from quad ID to index: a slot holds ID+1,
+     * or 0 if it is free. */
+    private final int[] idSlots, idIndex;
+    private final int idMask;
+
+    public AnalysisContext(ControlFlowGraph cfg) {
+        this.cfg = cfg;
+        SortedSet<String> regs = new TreeSet<String>();
+        SortedSet<Integer> ids = new TreeSet<Integer>();
+        Map<Register, Integer> cache = new HashMap<Register, Integer>();
+        List<Quad> quadList = new ArrayList<Quad>();
+
+        /* Arguments are always there. */
+        int numargs = cfg.getMethod().getParamTypes().length;
+        for (int i = 0; i < numargs; i++) {
+            regs.add("R"+i);
+        }
+
+        QuadIterator qit = new QuadIterator(cfg);
+        while (qit.hasNext()) {
+            Quad q = qit.next();
+            ids.add(q.getID());
+            quadList.add(q);
+            for (RegisterOperand def : q.getDefinedRegisters()) {
+                regs.add(def.getRegister().toString());
+                cache.put(def.getRegister(), null);
+            }
+            for (RegisterOperand use : q.getUsedRegisters()) {
+                regs.add(use.getRegister().toString());
+                cache.put(use.getRegister(), null);
+            }
+        }
+
+        registers = Collections.unmodifiableSortedSet(regs);
+        quadIDs = Collections.unmodifiableSortedSet(ids);
+
+        registerNames = regs.toArray(new String[regs.size()]);
+        registerIndex = new HashMap<String, Integer>();
+        for (int i = 0; i < registerNames.length; i++) {
+            registerIndex.put(registerNames[i], i);
+        }
+        for (Map.Entry<Register, Integer> e : cache.entrySet()) {
+            e.setValue(registerIndex.get(e.getKey().toString()));
+        }
+        registerCache = cache;
+
+        Collections.sort(quadList, new Comparator<Quad>() {
+            public int compare(Quad a, Quad b) {
+                return a.getID() - b.getID();
+            }
+        });
+        quads = quadList.toArray(new Quad[quadList.size()]);
+        int slots = 2;
+        while (slots < 2 * quads.length) slots <<= 1;
+        idSlots = new int[slots];
+        idIndex = new int[slots];
+        idMask = slots - 1;
+        for (int i = 0; i < quads.length; i++) {
+            int s = slotOf(quads[i].getID());
+            idSlots[s] = quads[i].getID() + 1;
+            idIndex[s] = i;
+        }
+    }
+
+    /* Returns the slot holding an ID, or the free one it would go in. */
+    private int slotOf(int id) {
+        int h = id * 0x9E3779B9;
+        int s = (h ^ (h >>> 16)) & idMask;
+        while (idSlots[s] != 0 && idSlots[s] != id + 1) {
+            s = (s + 1) & idMask;
+        }
+        return s;
+    }
+
+    /**
+     * Returns the CFG this context was built for.
+     */
+    public ControlFlowGraph getCFG() { return cfg; }
+
+    /**
+     * Returns the names of the method's arguments and of every
+     * register a quad defines or uses, sorted.
+     */
+    public SortedSet<String> getRegisters() { return registers; }
+
+    /**
+     * Returns the IDs of the quads in the CFG, sorted.
+     */
+    public SortedSet<Integer> getQuadIDs() { return quadIDs; }
+
+    /**
+     * Returns the number of registers, which is one more than the
+     * largest register index.
+     */
+    public int getNumRegisters() { return registerNames.length; }
+
+    /**
+     * Returns the dense index of the register with the given name.
+     *
+     * @throws IllegalArgumentException if the CFG has no such register
+     */
+    public int getRegisterIndex(String name) {
+        Integer i = registerIndex.get(name);
+        if (i == null) {
+            throw new IllegalArgumentException("No register " + name + " in " + cfg.getMethod());
+        }
+        return i;
+    }
+
+    /**
+     * Returns the dense index of a register.  Registers the CFG
+     * mentioned when the context was built are found without
+     * formatting their name.
+     *
+     * @throws IllegalArgumentException if the CFG has no such register
+     */
+    public int getRegisterIndex(Register r) {
+        Integer i = registerCache.get(r);
+        return (i != null) ? i : getRegisterIndex(r.toString());
+    }
+
+    /**
+     * Returns the name of the register with the given index.
+     */
+    public String getRegisterName(int index) { return registerNames[index]; }
+
+    /**
+     * Returns the number of quads, which is one more than the largest
+     * quad index.
+     */
+    public int getNumQuads() { return quads.length; }
+
+    /**
+     * Returns the dense index of a quad of the CFG, or -1 if the CFG
+     * had no quad with its ID.
+     */
+    public int getQuadIndex(Quad q) { return indexOf(q.getID()); }
+
+    /**
+     * Returns the quad with the given index.
+     */
+    public Quad getQuad(int index) { return quads[index]; }
+
+    /**
+     * Returns the quad with the given ID, or null if the CFG has none.
+     */
+    public Quad getQuadByID(int id) {
+        int i = indexOf(id);
+        return (i >= 0) ? quads[i] : null;
+    }
+
+    private int indexOf(int id) {
+        int s = slotOf(id);
+        return (idSlots[s] != 0) ? idIndex[s] : -1;
+    }
+}
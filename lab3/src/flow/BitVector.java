@@ -0,0 +1,205 @@
+package flow;
+
+import java.util.Arrays;
+
+/**
+ * A set of ints 0..size-1 stored as an array of 64-bit words.
+ *
+ * Union, intersection, difference, copy and equality all work a word
+ * at a time, so they cost O(size/64) no matter how many members the
+ * sets have.  The operations that modify the vector in place return
+ * whether any bit changed, and every change also advances the vector's
+ * version, so a caller can tell whether it changed since it last
+ * looked without keeping a copy.  Two vectors combined with each other
+ * must have the same size.
+ */
+public class BitVector {
+
+    private final long[] words;
+    private final int size;
+    private long version;
+
+    /**
+     * Creates an empty vector that can hold 0..size-1.
+     */
+    public BitVector(int size) {
+        this.size = size;
+        this.words = new long[(size + 63) >>> 6];
+    }
+
+    /**
+     * Returns the number of ints the vector can hold.
+     */
+    public int size() { return size; }
+
+    /**
+     * Returns a number that changes whenever the members do, and only
+     * then.
+     */
+    public long getVersion() { return version; }
+
+    public boolean get(int i) {
+        return (words[i >>> 6] & (1L << i)) != 0;
+    }
+
+    public void set(int i) {
+        long w = words[i >>> 6] | (1L << i);
+        if (w != words[i >>> 6]) {
+            words[i >>> 6] = w;
+            version++;
+        }
+    }
+
+    public void clear(int i) {
+        long w = words[i >>> 6] & ~(1L << i);
+        if (w != words[i >>> 6]) {
+            words[i >>> 6] = w;
+            version++;
+        }
+    }
+
+    /**
+     * Adds every int 0..size-1.
+     */
+    public void setAll() {
+        long changed = 0;
+        for (int i = 0; i < words.length; i++) {
+            long w = (i == words.length - 1) ? lastMask() : -1L;
+            changed |= w ^ words[i];
+            words[i] = w;
+        }
+        changed(changed);
+    }
+
+    /**
+     * Removes every member.
+     */
+    public void clearAll() {
+        long changed = 0;
+        for (int i = 0; i < words.length; i++) {
+            changed |= words[i];
+            words[i] = 0;
+        }
+        changed(changed);
+    }
+
+    public boolean isEmpty() {
+        for (long w : words) {
+            if (w != 0) return false;
+        }
+        return true;
+    }
+
+    public int cardinality() {
+        int n = 0;
+        for (long w : words) {
+            n += Long.bitCount(w);
+        }
+        return n;
+    }
+
+    /**
+     * Returns the smallest member that is at least from, or -1 if
+     * there is none.
+     */
+    public int nextSetBit(int from) {
+        int w = from >>> 6;
+        if (w >= words.length) return -1;
+        long word = words[w] & (-1L << from);
+        while (true) {
+            if (word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+            if (++w == words.length) return -1;
+            word = words[w];
+        }
+    }
+
+    /**
+     * Makes this vector hold exactly the members of o; returns whether
+     * this vector changed.
+     */
+    public boolean copy(BitVector o) {
+        long changed = 0;
+        for (int i = 0; i < words.length; i++) {
+            changed |= words[i] ^ o.words[i];
+            words[i] = o.words[i];
+        }
+        return changed(changed);
+    }
+
+    /**
+     * Adds the members of o; returns whether this vector changed.
+     */
+    public boolean or(BitVector o) {
+        long changed = 0;
+        for (int i = 0; i < words.length; i++) {
+            long w = words[i] | o.words[i];
+            changed |= w ^ words[i];
+            words[i] = w;
+        }
+        return changed(changed);
+    }
+
+    /**
+     * Removes the members not in o; returns whether this vector
+     * changed.
+     */
+    public boolean and(BitVector o) {
+        long changed = 0;
+        for (int i = 0; i < words.length; i++) {
+            long w = words[i] & o.words[i];
+            changed |= w ^ words[i];
+            words[i] = w;
+        }
+        return changed(changed);
+    }
+
+    /**
+     * Removes the members of o; returns whether this vector changed.
+     */
+    public boolean andNot(BitVector o) {
+        long changed = 0;
+        for (int i = 0; i < words.length; i++) {
+            long w = words[i] & ~o.words[i];
+            changed |= w ^ words[i];
+            words[i] = w;
+        }
+        return changed(changed);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof BitVector) {
+            BitVector a = (BitVector) o;
+            return size == a.size && Arrays.equals(words, a.words);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(words);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = nextSetBit(0); i >= 0; i = nextSetBit(i + 1)) {
+            if (sb.length() > 1) sb.append(", ");
+            sb.append(i);
+        }
+        return sb.append('}').toString();
+    }
+
+    /* Advances the version if any bit changed. */
+    private boolean changed(long bits) {
+        if (bits == 0) return false;
+        version++;
+        return true;
+    }
+
+    /* The bits of the last word that are inside the vector. */
+    private long lastMask() {
+        int r = size & 63;
+        return (r == 0) ? -1L : (1L << r) - 1;
+    }
+}
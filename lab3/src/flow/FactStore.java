@@ -0,0 +1,312 @@
+package flow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+import joeq.Compiler.Quad.*;
+
+/**
+ * Holds the dataflow values of the quads of one CFG for an analysis.
+ *
+ * By default every quad has its own in and out value, as the analyses
+ * always kept them.  With -Dflow.storage=blocks, values are kept only
+ * where the quad graph joins or forks: at the start and end of each
+ * basic block, and after quads with exception edges.  The quads in
+ * between form chains whose every value follows from the value at the
+ * head of the chain, so those values are recomputed with the
+ * analysis's transfer function when asked for.  The values of the
+ * last chain asked about are cached, so walking a block in either
+ * direction costs one pass over it.
+ *
+ * Solvers see no difference through peekIn/peekOut and transfer, as
+ * long as they transfer the quads of a chain in order, head first,
+ * as MySolver, WorklistSolver and BlockSolver do.  Writing into the value peekIn
+ * or peekOut returns for a quad inside a chain has no effect, since
+ * that value is always what the quad before it produces.
+ *
+ * If the analysis's values are Flow.VersionedObjects, a transfer
+ * whose chain input has the same version as when the quad was last
+ * transferred is skipped, since its output cannot have changed, and
+ * changes are told from versions instead of with equals.  Solvers get
+ * the most out of this by building a new input in a separate value
+ * and copying it over the stored one, instead of resetting the stored
+ * one to top and meeting into it, which always changes its version.
+ */
+public class FactStore {
+
+    /**
+     * Applies the transfer function of a quad to a value, in place.
+     */
+    public static interface Transfer {
+        void apply(Quad q, Flow.DataflowObject val);
+    }
+
+    private final AnalysisContext context;
+    private final Flow.Analysis analysis;
+    private final Transfer transfer;
+    private final boolean forward;
+
+    /* Indexed by the context's quad index.  input/output are in the
+     * analysis's direction (in/out for a forward analysis, out/in
+     * backward), and null where the value is recomputed, not kept. */
+    private final Flow.DataflowObject[] input, output;
+    /* The head of the chain a quad is in, and its position there. */
+    private final int[] head;
+    private final int[] pos;
+    /* For heads whose output is not kept: the input the chain was
+     * last computed from, and whether that computation changed it. */
+    private final Flow.DataflowObject[] seen;
+    private final boolean[] dirty;
+    /* The version of the chain's input when a quad was last
+     * transferred, or -1; only used for versioned values. */
+    private final long[] stamp;
+    private final boolean versioned;
+    /* Quad indices in the analysis's direction; chains are contiguous. */
+    private final int[] order;
+    private final int[] orderIndex;
+
+    /* Outputs of the first cacheLen quads of cacheHead's chain. */
+    private int cacheHead = -1;
+    private int cacheLen;
+    private final List<Flow.DataflowObject> cache = new ArrayList<Flow.DataflowObject>();
+
+    private final Flow.DataflowObject scratch, blank;
+
+    /**
+     * Uses block storage if the flow.storage system property is
+     * "blocks".
+     */
+    public FactStore(AnalysisContext context, Flow.Analysis analysis, Transfer transfer) {
+        this(context, analysis, transfer, "blocks".equals(System.getProperty("flow.storage")));
+    }
+
+    /**
+     * @param context      Numbers the quads of the CFG
+     * @param analysis     Gives the direction and makes the values
+     * @param transfer     The analysis's transfer function
+     * @param atBoundaries Whether to keep values only at the ends of
+     *                     chains instead of at every quad
+     */
+    public FactStore(AnalysisContext context, Flow.Analysis analysis, Transfer transfer, boolean atBoundaries) {
+        this.context = context;
+        this.analysis = analysis;
+        this.transfer = transfer;
+        this.forward = analysis.isForward();
+
+        // walk the quads in the analysis's direction with the quads
+        // their values come from and go to.
+        QuadGraph g = new QuadGraph(context.getCFG(), forward);
+
+        int n = context.getNumQuads();
+        input = new Flow.DataflowObject[n];
+        output = new Flow.DataflowObject[n];
+        head = new int[n];
+        pos = new int[n];
+        seen = new Flow.DataflowObject[n];
+        dirty = new boolean[n];
+        stamp = new long[n];
+        Arrays.fill(stamp, -1);
+        order = new int[n];
+        orderIndex = new int[n];
+
+        // a quad is chained to the quad before it in the same block if
+        // that is the only quad its value comes from.
+        for (int i = 0; i < g.size(); i++) {
+            int q = context.getQuadIndex(g.getQuad(i));
+            order[i] = q;
+            orderIndex[q] = i;
+            boolean chained = atBoundaries && i > 0 && g.getBlock(i) == g.getBlock(i - 1)
+                && !g.fromStart(i) && g.predEnd(i) - g.predBegin(i) == 1
+                && g.pred(g.predBegin(i)) == i - 1;
+            if (chained) {
+                head[q] = head[order[i - 1]];
+                pos[q] = pos[order[i - 1]] + 1;
+            } else {
+                head[q] = q;
+                input[q] = analysis.newTempVar();
+            }
+        }
+        // a quad's output is kept unless only the quad chained to it
+        // reads it.
+        for (int i = 0; i < g.size(); i++) {
+            int q = order[i];
+            boolean kept = !atBoundaries || g.toEnd(i);
+            for (int k = g.succBegin(i); k < g.succEnd(i); k++) {
+                int s = g.succ(k);
+                if (s != i + 1 || head[order[s]] == order[s]) {
+                    kept = true;
+                }
+            }
+            if (kept) {
+                output[q] = analysis.newTempVar();
+            } else if (head[q] == q) {
+                seen[q] = analysis.newTempVar();
+            }
+        }
+
+        scratch = analysis.newTempVar();
+        blank = analysis.newTempVar();
+        versioned = scratch instanceof Flow.VersionedObject;
+    }
+
+    /**
+     * Returns one more than the largest quad ID, for printing values
+     * by ID.
+     */
+    public int size() {
+        SortedSet<Integer> ids = context.getQuadIDs();
+        return (ids.isEmpty() ? 0 : ids.last()) + 1;
+    }
+
+    /**
+     * Returns the quad with the given ID, or null if there is none.
+     */
+    public Quad getQuad(int id) { return context.getQuadByID(id); }
+
+    /**
+     * Returns the in value of a quad.  It is the stored value if there
+     * is one, so solvers can update it in place, and otherwise one
+     * that is only valid until the next call.
+     */
+    public Flow.DataflowObject peekIn(Quad q) {
+        return forward ? flowInput(q) : flowOutput(q);
+    }
+
+    /**
+     * Returns the out value of a quad; see peekIn.
+     */
+    public Flow.DataflowObject peekOut(Quad q) {
+        return forward ? flowOutput(q) : flowInput(q);
+    }
+
+    /**
+     * Returns the in value of the quad with the given ID, or a fresh
+     * value if there is no such quad.
+     */
+    public Flow.DataflowObject peekIn(int id) {
+        Quad q = context.getQuadByID(id);
+        return (q == null) ? blank : peekIn(q);
+    }
+
+    /**
+     * Returns the out value of the quad with the given ID, or a fresh
+     * value if there is no such quad.
+     */
+    public Flow.DataflowObject peekOut(int id) {
+        Quad q = context.getQuadByID(id);
+        return (q == null) ? blank : peekOut(q);
+    }
+
+    /**
+     * Returns a copy of the in value of a quad.
+     */
+    public Flow.DataflowObject getIn(Quad q) {
+        Flow.DataflowObject result = analysis.newTempVar();
+        result.copy(peekIn(q));
+        return result;
+    }
+
+    /**
+     * Returns a copy of the out value of a quad.
+     */
+    public Flow.DataflowObject getOut(Quad q) {
+        Flow.DataflowObject result = analysis.newTempVar();
+        result.copy(peekOut(q));
+        return result;
+    }
+
+    public void setIn(Quad q, Flow.DataflowObject value) {
+        Flow.DataflowObject[] kept = forward ? input : output;
+        int i = context.getQuadIndex(q);
+        if (kept[i] != null) {
+            kept[i].copy(value);
+        }
+    }
+
+    public void setOut(Quad q, Flow.DataflowObject value) {
+        Flow.DataflowObject[] kept = forward ? output : input;
+        int i = context.getQuadIndex(q);
+        if (kept[i] != null) {
+            kept[i].copy(value);
+        }
+    }
+
+    /**
+     * Recomputes the output of a quad from its input; returns whether
+     * it changed.  For a quad inside a chain, that is whether the
+     * input of the chain changed when its head was last transferred.
+     */
+    public boolean transfer(Quad q) {
+        int i = context.getQuadIndex(q);
+        int h = head[i];
+        long v = versioned ? ((Flow.VersionedObject) input[h]).getVersion() : -1;
+        if (versioned && stamp[i] == v) {
+            if (h == i) dirty[i] = false;
+            return false;
+        }
+        if (cacheHead == h && cacheLen > pos[i]) {
+            cacheLen = pos[i];
+        }
+        Flow.DataflowObject value = compute(i);
+
+        boolean changed;
+        if (output[i] != null) {
+            changed = update(output[i], value);
+        } else if (h == i) {
+            changed = update(seen[i], input[i]);
+        } else {
+            changed = dirty[h];
+        }
+        if (h == i) dirty[i] = changed;
+        stamp[i] = v;
+        return changed;
+    }
+
+    /* Copies value into kept; returns whether kept changed. */
+    private boolean update(Flow.DataflowObject kept, Flow.DataflowObject value) {
+        if (versioned) {
+            long v = ((Flow.VersionedObject) kept).getVersion();
+            kept.copy(value);
+            return ((Flow.VersionedObject) kept).getVersion() != v;
+        }
+        if (value.equals(kept)) return false;
+        kept.copy(value);
+        return true;
+    }
+
+    private Flow.DataflowObject flowInput(Quad q) {
+        int i = context.getQuadIndex(q);
+        if (input[i] != null) return input[i];
+        scratch.copy(compute(order[orderIndex[i] - 1]));
+        return scratch;
+    }
+
+    private Flow.DataflowObject flowOutput(Quad q) {
+        int i = context.getQuadIndex(q);
+        if (output[i] != null) return output[i];
+        return compute(i);
+    }
+
+    /* Returns the output of quad i, computing the chain up to it from
+     * its head's input as far as the cache does not already have it. */
+    private Flow.DataflowObject compute(int i) {
+        int h = head[i];
+        int p = pos[i];
+        if (cacheHead != h) {
+            cacheHead = h;
+            cacheLen = 0;
+        }
+        int start = orderIndex[h];
+        while (cacheLen <= p) {
+            if (cache.size() == cacheLen) {
+                cache.add(analysis.newTempVar());
+            }
+            Flow.DataflowObject value = cache.get(cacheLen);
+            value.copy(cacheLen == 0 ? input[h] : cache.get(cacheLen - 1));
+            transfer.apply(context.getQuad(order[start + cacheLen]), value);
+            cacheLen++;
+        }
+        return cache.get(p);
+    }
+}
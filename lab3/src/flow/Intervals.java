@@ -0,0 +1,565 @@
+package flow;
+
+import java.util.*;
+import joeq.Compiler.BytecodeAnalysis.BytecodeVisitor;
+import joeq.Compiler.Quad.*;
+import joeq.Compiler.Quad.Operand.*;
+import joeq.Compiler.Quad.RegisterFactory.Register;
+import joeq.Main.Helper;
+
+/**
+ * Integer interval analysis: for every register at every point, a
+ * range [lo, hi] of int values it may hold.
+ *
+ * Every int Binary and Unary operator is evaluated on ranges, with
+ * Java's wrap-around: an operation that might overflow gives the full
+ * range.  Registers that do not hold ints, and anything loaded from
+ * memory or returned by a call, get the full range too.  The ranges
+ * are narrowed on the two edges out of an IntIfCmp by what its
+ * condition says on each of them; an edge the condition rules out
+ * carries top, as if it were never taken.
+ *
+ * The lattice has infinite height, so this needs a solver that widens
+ * at loop heads and refines along edges, such as submit.SCCSolver.
+ * Widening sends a bound that keeps moving straight to the end of the
+ * int range, and narrowing then brings it back to what the loop's
+ * exit condition allows.
+ *
+ * After the solver has run, getRange tells the range of an operand
+ * just before a quad, for optimizations that fold comparisons or drop
+ * checks.
+ */
+public class Intervals implements Flow.InPlaceAnalysis, Flow.EdgeAnalysis {
+
+    /**
+     * An immutable range of int values, lo..hi inclusive.
+     */
+    public static final class Range {
+        private final int lo, hi;
+
+        public Range(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        public int getLow() { return lo; }
+        public int getHigh() { return hi; }
+        public boolean isConstant() { return lo == hi; }
+        public boolean contains(long v) { return lo <= v && v <= hi; }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof Range) {
+                Range a = (Range) o;
+                return lo == a.lo && hi == a.hi;
+            }
+            return false;
+        }
+        @Override
+        public int hashCode() {
+            return 31 * lo + hi;
+        }
+        @Override
+        public String toString() {
+            return "[" + bound(lo) + ", " + bound(hi) + "]";
+        }
+
+        private static String bound(int v) {
+            return (v == Integer.MIN_VALUE) ? "-inf" : (v == Integer.MAX_VALUE) ? "+inf" : String.valueOf(v);
+        }
+    }
+
+    /* A range packed in a long: lo in the high word and hi in the low
+     * word, xor the packing of the empty range [1, 0], which stands for
+     * undef (top) and so packs to 0. */
+    private static final long UNDEF_BITS = 1L << 32;
+    private static final long FULL = pack(Integer.MIN_VALUE, Integer.MAX_VALUE);
+
+    private static long pack(int lo, int hi) {
+        return (((long) lo << 32) | (hi & 0xffffffffL)) ^ UNDEF_BITS;
+    }
+
+    private static int low(long v) { return (int) ((v ^ UNDEF_BITS) >> 32); }
+    private static int high(long v) { return (int) (v ^ UNDEF_BITS); }
+
+    /* The range lo..hi, or the full range if it does not fit in an
+     * int, since the operation that gave it may have wrapped. */
+    private static long range(long lo, long hi) {
+        if (lo < Integer.MIN_VALUE || hi > Integer.MAX_VALUE) return FULL;
+        return pack((int) lo, (int) hi);
+    }
+
+    private static final PersistentLongArray.Merge MEET = new PersistentLongArray.Merge() {
+        public long merge(long mine, long theirs) {
+            if (mine == theirs || theirs == 0) return mine;
+            if (mine == 0) return theirs;
+            return pack(Math.min(low(mine), low(theirs)), Math.max(high(mine), high(theirs)));
+        }
+    };
+
+    private static final PersistentLongArray.Merge WIDEN = new PersistentLongArray.Merge() {
+        public long merge(long mine, long theirs) {
+            if (mine == theirs || theirs == 0) return mine;
+            if (mine == 0) return theirs;
+            int lo = (low(theirs) < low(mine)) ? Integer.MIN_VALUE : low(mine);
+            int hi = (high(theirs) > high(mine)) ? Integer.MAX_VALUE : high(mine);
+            return pack(lo, hi);
+        }
+    };
+
+    private static final PersistentLongArray.Merge NARROW = new PersistentLongArray.Merge() {
+        public long merge(long mine, long theirs) {
+            if (mine == theirs || theirs == 0) return mine;
+            if (mine == 0) return theirs;
+            int lo = (low(mine) == Integer.MIN_VALUE) ? low(theirs) : low(mine);
+            int hi = (high(mine) == Integer.MAX_VALUE) ? high(theirs) : high(mine);
+            return pack(lo, hi);
+        }
+    };
+
+    public static class IntervalTable implements Flow.VersionedObject, Flow.WideningObject {
+        /* values.get(r) holds the range of the register with index r
+         * in the context, packed as above; a table of undefs is an
+         * empty trie. */
+        private final PersistentLongArray values;
+        private final AnalysisContext context;
+
+        public IntervalTable(AnalysisContext context) {
+            this.context = context;
+            values = new PersistentLongArray(context.getNumRegisters());
+        }
+
+        public void setToTop() { values.fill(0); }
+        public void setToBottom() { values.fill(FULL); }
+
+        public void meetWith(Flow.DataflowObject o) {
+            values.merge(((IntervalTable) o).values, MEET);
+        }
+
+        public void widenWith(Flow.DataflowObject o) {
+            values.merge(((IntervalTable) o).values, WIDEN);
+        }
+
+        public void narrowWith(Flow.DataflowObject o) {
+            values.merge(((IntervalTable) o).values, NARROW);
+        }
+
+        public void copy(Flow.DataflowObject o) {
+            values.copy(((IntervalTable) o).values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof IntervalTable) {
+                return values.equals(((IntervalTable) o).values);
+            }
+            return false;
+        }
+        @Override
+        public int hashCode() {
+            return values.hashCode();
+        }
+        public long getVersion() {
+            return values.getVersion();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("{");
+            for (int r = 0; r < values.length(); r++) {
+                if (r > 0) sb.append(", ");
+                sb.append(context.getRegisterName(r)).append('=');
+                long v = values.get(r);
+                sb.append((v == 0) ? "undef" : new Range(low(v), high(v)).toString());
+            }
+            return sb.append('}').toString();
+        }
+
+        /**
+         * Returns the range of a register, or null if it is undef.
+         */
+        public Range get(Register key) {
+            long v = values.get(context.getRegisterIndex(key));
+            return (v == 0) ? null : new Range(low(v), high(v));
+        }
+
+        /**
+         * Returns the range of an operand, or null if it is an undef
+         * register.  Operands that are neither int constants nor
+         * registers have the full range.
+         */
+        public Range get(Operand op) {
+            long v = bits(op);
+            return (v == 0) ? null : new Range(low(v), high(v));
+        }
+
+        public void setRange(Register key, int lo, int hi) {
+            values.set(context.getRegisterIndex(key), pack(lo, hi));
+        }
+        public void setFull(Register key) {
+            values.set(context.getRegisterIndex(key), FULL);
+        }
+
+        long bits(Operand op) {
+            if (op instanceof IConstOperand) {
+                int c = ((IConstOperand) op).getValue();
+                return pack(c, c);
+            }
+            if (op instanceof RegisterOperand) {
+                return values.get(context.getRegisterIndex(((RegisterOperand) op).getRegister()));
+            }
+            return FULL;
+        }
+
+        void set(Register key, long bits) {
+            values.set(context.getRegisterIndex(key), bits);
+        }
+    }
+
+    private FactStore facts;
+    private IntervalTable entry, exit;
+    private AnalysisContext context;
+    /* For each IntIfCmp, by quad index, the block it falls through to. */
+    private BasicBlock[] fallthrough;
+
+    public void preprocess(ControlFlowGraph cfg) {
+        System.out.println("Method: "+cfg.getMethod().getName().toString());
+        context = new AnalysisContext(cfg);
+
+        entry = new IntervalTable(context);
+        exit = new IntervalTable(context);
+        facts = new FactStore(context, this, transferfn);
+
+        /* Nothing is known about the arguments. */
+        int numargs = cfg.getMethod().getParamTypes().length;
+        for (int i = 0; i < numargs; i++) {
+            entry.values.set(context.getRegisterIndex("R"+i), FULL);
+        }
+
+        fallthrough = new BasicBlock[context.getNumQuads()];
+        QuadIterator qit = new QuadIterator(cfg);
+        while (qit.hasNext()) {
+            Quad q = qit.next();
+            if (q.getOperator() instanceof Operator.IntIfCmp) {
+                fallthrough[context.getQuadIndex(q)] = qit.getCurrentBasicBlock().getFallthroughSuccessor();
+            }
+        }
+        System.out.println("Initialization completed.");
+    }
+
+    public void postprocess(ControlFlowGraph cfg) {
+        System.out.println("entry: "+entry.toString());
+        for (int i=0; i<facts.size(); i++) {
+            System.out.println(i+" in:  "+facts.peekIn(i).toString());
+            System.out.println(i+" out: "+facts.peekOut(i).toString());
+        }
+        System.out.println("exit: "+exit.toString());
+    }
+
+    /* Is this a forward dataflow analysis? */
+    public boolean isForward() { return true; }
+
+    /**
+     * Returns the range of an operand just before quad q, or null if
+     * it is an undef register (or q is never reached).
+     */
+    public Range getRange(Quad q, Operand op) {
+        return ((IntervalTable) facts.peekIn(q)).get(op);
+    }
+
+    /* Routines for interacting with dataflow values. */
+
+    public Flow.DataflowObject getEntry() {
+        Flow.DataflowObject result = newTempVar();
+        result.copy(entry);
+        return result;
+    }
+    public Flow.DataflowObject getExit() {
+        Flow.DataflowObject result = newTempVar();
+        result.copy(exit);
+        return result;
+    }
+    public Flow.DataflowObject getIn(Quad q) {
+        return facts.getIn(q);
+    }
+    public Flow.DataflowObject getOut(Quad q) {
+        return facts.getOut(q);
+    }
+    public void setIn(Quad q, Flow.DataflowObject value) {
+        facts.setIn(q, value);
+    }
+    public void setOut(Quad q, Flow.DataflowObject value) {
+        facts.setOut(q, value);
+    }
+    public void setEntry(Flow.DataflowObject value) {
+        entry.copy(value);
+    }
+    public void setExit(Flow.DataflowObject value) {
+        exit.copy(value);
+    }
+
+    public Flow.DataflowObject peekEntry() { return entry; }
+    public Flow.DataflowObject peekExit() { return exit; }
+    public Flow.DataflowObject peekIn(Quad q) { return facts.peekIn(q); }
+    public Flow.DataflowObject peekOut(Quad q) { return facts.peekOut(q); }
+
+    public Flow.DataflowObject newTempVar() { return new IntervalTable(context); }
+
+    /**
+     * Narrows the ranges of the operands of an IntIfCmp on each of its
+     * two edges.
+     */
+    public void refine(Quad from, BasicBlock to, Flow.DataflowObject value) {
+        if (!(from.getOperator() instanceof Operator.IntIfCmp)) return;
+        // the edge ends at the first quad, which may be further on,
+        // and both edges may end at the same one.
+        BasicBlock target = QuadGraph.firstBlock(Operator.IntIfCmp.getTarget(from).getTarget());
+        BasicBlock fall = QuadGraph.firstBlock(fallthrough[context.getQuadIndex(from)]);
+        if (target == fall) return;
+        byte cond = Operator.IntIfCmp.getCond(from).getCondition();
+        if (to == fall) {
+            cond = negate(cond);
+        } else if (to != target) {
+            return;
+        }
+        IntervalTable val = (IntervalTable) value;
+        if (!constrain(val, cond, Operator.IntIfCmp.getSrc1(from), Operator.IntIfCmp.getSrc2(from))) {
+            val.setToTop();
+        }
+    }
+
+    private static byte negate(byte cond) {
+        switch (cond) {
+        case BytecodeVisitor.CMP_EQ: return BytecodeVisitor.CMP_NE;
+        case BytecodeVisitor.CMP_NE: return BytecodeVisitor.CMP_EQ;
+        case BytecodeVisitor.CMP_LT: return BytecodeVisitor.CMP_GE;
+        case BytecodeVisitor.CMP_GE: return BytecodeVisitor.CMP_LT;
+        case BytecodeVisitor.CMP_LE: return BytecodeVisitor.CMP_GT;
+        case BytecodeVisitor.CMP_GT: return BytecodeVisitor.CMP_LE;
+        default: return BytecodeVisitor.CMP_UNCOND;
+        }
+    }
+
+    /* Narrows the ranges of x and y to the values for which "x cond y"
+     * can hold; returns false if there are none. */
+    private static boolean constrain(IntervalTable val, byte cond, Operand x, Operand y) {
+        long a = val.bits(x), b = val.bits(y);
+        if (a == 0 || b == 0) return true;
+        long xl = low(a), xh = high(a), yl = low(b), yh = high(b);
+        switch (cond) {
+        case BytecodeVisitor.CMP_EQ:
+            xl = yl = Math.max(xl, yl);
+            xh = yh = Math.min(xh, yh);
+            break;
+        case BytecodeVisitor.CMP_NE:
+            if (yl == yh) {
+                if (xl == yl) xl++;
+                if (xh == yl) xh--;
+            }
+            if (xl == xh) {
+                if (yl == xl) yl++;
+                if (yh == xl) yh--;
+            }
+            break;
+        case BytecodeVisitor.CMP_LT:
+            xh = Math.min(xh, yh - 1);
+            yl = Math.max(yl, xl + 1);
+            break;
+        case BytecodeVisitor.CMP_LE:
+            xh = Math.min(xh, yh);
+            yl = Math.max(yl, xl);
+            break;
+        case BytecodeVisitor.CMP_GT:
+            xl = Math.max(xl, yl + 1);
+            yh = Math.min(yh, xh - 1);
+            break;
+        case BytecodeVisitor.CMP_GE:
+            xl = Math.max(xl, yl);
+            yh = Math.min(yh, xh);
+            break;
+        default:
+            return true;
+        }
+        if (xl > xh || yl > yh) return false;
+        if (x instanceof RegisterOperand) {
+            val.set(((RegisterOperand) x).getRegister(), pack((int) xl, (int) xh));
+        }
+        if (y instanceof RegisterOperand) {
+            val.set(((RegisterOperand) y).getRegister(), pack((int) yl, (int) yh));
+        }
+        return true;
+    }
+
+    /* Actually perform the transfer operation on the relevant
+     * quad. */
+
+    private TransferFunction transferfn = new TransferFunction ();
+    public void processQuad(Quad q) {
+        transfer(q);
+    }
+
+    public boolean transfer(Quad q) {
+        return facts.transfer(q);
+    }
+
+    /* The QuadVisitor that actually does the computation.  Quads it
+     * has no rule for give their results the full range. */
+    public static class TransferFunction extends QuadVisitor.EmptyVisitor
+        implements FactStore.Transfer
+    {
+        IntervalTable val;
+        boolean handled;
+        public void apply(Quad q, Flow.DataflowObject v) {
+            val = (IntervalTable) v;
+            handled = false;
+            Helper.runPass(q, this);
+            if (!handled) {
+                for (RegisterOperand def : q.getDefinedRegisters()) {
+                    val.setFull(def.getRegister());
+                }
+            }
+        }
+
+        @Override
+        public void visitMove(Quad q) {
+            handled = true;
+            val.set(Operator.Move.getDest(q).getRegister(), val.bits(Operator.Move.getSrc(q)));
+        }
+
+        @Override
+        public void visitALength(Quad q) {
+            handled = true;
+            val.setRange(Operator.ALength.getDest(q).getRegister(), 0, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void visitBinary(Quad q) {
+            handled = true;
+            Register key = Operator.Binary.getDest(q).getRegister();
+            Operator opr = q.getOperator();
+            if (opr instanceof Operator.Binary.CMP_L || opr instanceof Operator.Binary.CMP_FL
+                || opr instanceof Operator.Binary.CMP_FG || opr instanceof Operator.Binary.CMP_DL
+                || opr instanceof Operator.Binary.CMP_DG || opr instanceof Operator.Binary.CMP_P) {
+                val.setRange(key, -1, 1);
+                return;
+            }
+            long a = val.bits(Operator.Binary.getSrc1(q));
+            long b = val.bits(Operator.Binary.getSrc2(q));
+            if (a == 0 || b == 0) {
+                val.set(key, 0);
+            } else {
+                val.set(key, binary(opr, low(a), high(a), low(b), high(b)));
+            }
+        }
+
+        @Override
+        public void visitUnary(Quad q) {
+            handled = true;
+            Register key = Operator.Unary.getDest(q).getRegister();
+            long a = val.bits(Operator.Unary.getSrc(q));
+            if (a == 0) {
+                val.set(key, 0);
+            } else {
+                val.set(key, unary(q.getOperator(), low(a), high(a)));
+            }
+        }
+    }
+
+    /* The range of "x opr y" for x in [a, b] and y in [c, d]. */
+    private static long binary(Operator opr, long a, long b, long c, long d) {
+        if (opr instanceof Operator.Binary.ADD_I) {
+            return range(a + c, b + d);
+        }
+        if (opr instanceof Operator.Binary.SUB_I) {
+            return range(a - d, b - c);
+        }
+        if (opr instanceof Operator.Binary.MUL_I) {
+            long p1 = a * c, p2 = a * d, p3 = b * c, p4 = b * d;
+            return range(Math.min(Math.min(p1, p2), Math.min(p3, p4)),
+                         Math.max(Math.max(p1, p2), Math.max(p3, p4)));
+        }
+        if (opr instanceof Operator.Binary.DIV_I) {
+            // division by zero throws, so only the nonzero divisors
+            // count; the quotient is extreme at the corners of each
+            // side of zero.
+            long lo = Long.MAX_VALUE, hi = Long.MIN_VALUE;
+            if (c < 0) {
+                long e = Math.min(d, -1);
+                lo = Math.min(lo, Math.min(Math.min(a / c, a / e), Math.min(b / c, b / e)));
+                hi = Math.max(hi, Math.max(Math.max(a / c, a / e), Math.max(b / c, b / e)));
+            }
+            if (d > 0) {
+                long s = Math.max(c, 1);
+                lo = Math.min(lo, Math.min(Math.min(a / s, a / d), Math.min(b / s, b / d)));
+                hi = Math.max(hi, Math.max(Math.max(a / s, a / d), Math.max(b / s, b / d)));
+            }
+            return (lo > hi) ? 0 : range(lo, hi);
+        }
+        if (opr instanceof Operator.Binary.REM_I) {
+            // the remainder has the dividend's sign and is smaller in
+            // size than the divisor.
+            long m = Math.max(Math.abs(c), Math.abs(d)) - 1;
+            if (m < 0) return 0;
+            return range(Math.max(Math.min(a, 0), -m), Math.min(Math.max(b, 0), m));
+        }
+        if (opr instanceof Operator.Binary.AND_I) {
+            if (a == b && c == d) return range(a & c, a & c);
+            if (a >= 0 && c >= 0) return range(0, Math.min(b, d));
+            if (a >= 0) return range(0, b);
+            if (c >= 0) return range(0, d);
+            return FULL;
+        }
+        if (opr instanceof Operator.Binary.OR_I || opr instanceof Operator.Binary.XOR_I) {
+            boolean or = opr instanceof Operator.Binary.OR_I;
+            if (a == b && c == d) {
+                long v = or ? (a | c) : (a ^ c);
+                return range(v, v);
+            }
+            if (a >= 0 && c >= 0) {
+                long ones = Long.highestOneBit(Math.max(b, d)) * 2 - 1;
+                return range(or ? Math.max(a, c) : 0, ones);
+            }
+            return FULL;
+        }
+        if (opr instanceof Operator.Binary.SHL_I || opr instanceof Operator.Binary.SHR_I
+            || opr instanceof Operator.Binary.USHR_I) {
+            // only the low five bits of the shift count are used.
+            if (c < 0 || d > 31) {
+                c = 0;
+                d = 31;
+            }
+            if (opr instanceof Operator.Binary.SHL_I) {
+                if (c != d) return FULL;
+                return range(a << c, b << c);
+            }
+            if (opr instanceof Operator.Binary.USHR_I && a < 0) {
+                return (c == 0) ? FULL : range(0, 0xffffffffL >>> c);
+            }
+            return range(Math.min(a >> c, a >> d), Math.max(b >> c, b >> d));
+        }
+        return FULL;
+    }
+
+    /* The range of "opr x" for x in [a, b]. */
+    private static long unary(Operator opr, long a, long b) {
+        if (opr instanceof Operator.Unary.NEG_I) {
+            return range(-b, -a);
+        }
+        if (opr instanceof Operator.Unary.INT_2BYTE) {
+            return within(a, b, Byte.MIN_VALUE, Byte.MAX_VALUE);
+        }
+        if (opr instanceof Operator.Unary.INT_2SHORT) {
+            return within(a, b, Short.MIN_VALUE, Short.MAX_VALUE);
+        }
+        if (opr instanceof Operator.Unary.INT_2CHAR) {
+            return within(a, b, Character.MIN_VALUE, Character.MAX_VALUE);
+        }
+        return FULL;
+    }
+
+    /* The range of a narrowing conversion to [min, max] of x in [a, b]:
+     * unchanged if it already fits, otherwise anything it can wrap to. */
+    private static long within(long a, long b, long min, long max) {
+        return (a >= min && b <= max) ? range(a, b) : range(min, max);
+    }
+}
@@ -3,27 +3,31 @@ package flow;
 import java.util.*;
 import joeq.Compiler.Quad.*;
 import joeq.Compiler.Quad.Operand.RegisterOperand;
+import joeq.Compiler.Quad.RegisterFactory.Register;
 
-public class Liveness implements Flow.Analysis {
+public class Liveness implements Flow.InPlaceAnalysis {
 
-    public static class VarSet implements Flow.DataflowObject {
-        private Set<String> set;
-        public static Set<String> universalSet;
-        public VarSet() { set = new TreeSet<String>(); }
+    public static class VarSet implements Flow.VersionedObject {
+        private final BitVector set;
+        private final AnalysisContext context;
+        public VarSet(AnalysisContext context) {
+            this.context = context;
+            set = new BitVector(context.getNumRegisters());
+        }
 
-        public void setToTop() { set = new TreeSet<String>(); }
-        public void setToBottom() { set = new TreeSet<String>(universalSet); }
+        public void setToTop() { set.clearAll(); }
+        public void setToBottom() { set.setAll(); }
 
         public void meetWith(Flow.DataflowObject o) 
         {
             VarSet a = (VarSet)o;
-            set.addAll(a.set);
+            set.or(a.set);
         }
 
         public void copy(Flow.DataflowObject o) 
         {
             VarSet a = (VarSet) o;
-            set = new TreeSet<String>(a.set);
+            set.copy(a.set);
         }
 
         @Override
@@ -40,68 +44,49 @@ public class Liveness implements Flow.Analysis {
         public int hashCode() {
             return set.hashCode();
         }
+        public long getVersion() {
+            return set.getVersion();
+        }
         @Override
         public String toString() 
         {
-            return set.toString();
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+                if (sb.length() > 1) sb.append(", ");
+                sb.append(context.getRegisterName(i));
+            }
+            return sb.append(']').toString();
         }
 
-        public void genVar(String v) {set.add(v);}
-        public void killVar(String v) {set.remove(v);}
+        public void genVar(String v) {set.set(context.getRegisterIndex(v));}
+        public void killVar(String v) {set.clear(context.getRegisterIndex(v));}
+        public void genVar(Register r) {set.set(context.getRegisterIndex(r));}
+        public void killVar(Register r) {set.clear(context.getRegisterIndex(r));}
     }
 
-    private VarSet[] in, out;
+    private FactStore facts;
     private VarSet entry, exit;
+    private AnalysisContext context;
 
     public void preprocess(ControlFlowGraph cfg) {
         System.out.println("Method: "+cfg.getMethod().getName().toString());
         /* Generate initial conditions. */
-        QuadIterator qit = new QuadIterator(cfg);
-        int max = 0;
-        while (qit.hasNext()) {
-            int x = qit.next().getID();
-            if (x > max) max = x;
-        }
-        max += 1;
-        in = new VarSet[max];
-        out = new VarSet[max];
-        qit = new QuadIterator(cfg);
-
-        Set<String> s = new TreeSet<String>();
-        VarSet.universalSet = s;
-
-        /* Arguments are always there. */
-        int numargs = cfg.getMethod().getParamTypes().length;
-        for (int i = 0; i < numargs; i++) {
-            s.add("R"+i);
-        }
-
-        while (qit.hasNext()) {
-            Quad q = qit.next();
-            for (RegisterOperand def : q.getDefinedRegisters()) {
-                s.add(def.getRegister().toString());
-            }
-            for (RegisterOperand use : q.getUsedRegisters()) {
-                s.add(use.getRegister().toString());
-            }
-        }
+        /* The registers (arguments are always there) are kept in the
+         * context shared by all the VarSets of this CFG. */
+        context = new AnalysisContext(cfg);
 
-        entry = new VarSet();
-        exit = new VarSet();
-        transferfn.val = new VarSet();
-        for (int i=0; i<in.length; i++) {
-            in[i] = new VarSet();
-            out[i] = new VarSet();
-        }
+        entry = new VarSet(context);
+        exit = new VarSet(context);
+        facts = new FactStore(context, this, transferfn);
 
         System.out.println("Initialization completed.");
     }
 
     public void postprocess(ControlFlowGraph cfg) {
         System.out.println("entry: "+entry.toString());
-        for (int i=1; i<in.length; i++) {
-            System.out.println(i+" in:  "+in[i].toString());
-            System.out.println(i+" out: "+out[i].toString());
+        for (int i=1; i<facts.size(); i++) {
+            System.out.println(i+" in:  "+facts.peekIn(i).toString());
+            System.out.println(i+" out: "+facts.peekOut(i).toString());
         }
         System.out.println("exit: "+exit.toString());
     }
@@ -125,23 +110,19 @@ public class Liveness implements Flow.Analysis {
     }
     public Flow.DataflowObject getIn(Quad q) 
     {
-        Flow.DataflowObject result = newTempVar();
-        result.copy(in[q.getID()]); 
-        return result;
+        return facts.getIn(q);
     }
     public Flow.DataflowObject getOut(Quad q) 
     {
-        Flow.DataflowObject result = newTempVar();
-        result.copy(out[q.getID()]); 
-        return result;
+        return facts.getOut(q);
     }
     public void setIn(Quad q, Flow.DataflowObject value) 
     { 
-        in[q.getID()].copy(value); 
+        facts.setIn(q, value); 
     }
     public void setOut(Quad q, Flow.DataflowObject value) 
     { 
-        out[q.getID()].copy(value); 
+        facts.setOut(q, value); 
     }
     public void setEntry(Flow.DataflowObject value) 
     { 
@@ -152,28 +133,39 @@ public class Liveness implements Flow.Analysis {
         exit.copy(value); 
     }
 
-    public Flow.DataflowObject newTempVar() { return new VarSet(); }
+    public Flow.DataflowObject peekEntry() { return entry; }
+    public Flow.DataflowObject peekExit() { return exit; }
+    public Flow.DataflowObject peekIn(Quad q) { return facts.peekIn(q); }
+    public Flow.DataflowObject peekOut(Quad q) { return facts.peekOut(q); }
+
+    public Flow.DataflowObject newTempVar() { return new VarSet(context); }
 
     /* Actually perform the transfer operation on the relevant
      * quad. */
 
     private TransferFunction transferfn = new TransferFunction ();
     public void processQuad(Quad q) {
-        transferfn.val.copy(out[q.getID()]);
-        transferfn.visitQuad(q);
-        in[q.getID()].copy(transferfn.val);
+        transfer(q);
+    }
+
+    public boolean transfer(Quad q) {
+        return facts.transfer(q);
     }
 
     /* The QuadVisitor that actually does the computation */
-    public static class TransferFunction extends QuadVisitor.EmptyVisitor {
+    public static class TransferFunction extends QuadVisitor.EmptyVisitor implements FactStore.Transfer {
         VarSet val;
+        public void apply(Quad q, Flow.DataflowObject v) {
+            val = (VarSet) v;
+            visitQuad(q);
+        }
         @Override
         public void visitQuad(Quad q) {
             for (RegisterOperand def : q.getDefinedRegisters()) {
-                val.killVar(def.getRegister().toString());
+                val.killVar(def.getRegister());
             }
             for (RegisterOperand use : q.getUsedRegisters()) {
-                val.genVar(use.getRegister().toString());
+                val.genVar(use.getRegister());
             }
         }
     }
@@ -0,0 +1,245 @@
+package flow;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-length array of longs, all 0 to begin with, that shares its
+ * structure with the arrays it was copied from.
+ *
+ * The values live in the leaves of a trie of fanout 16.  Nodes are
+ * never modified once built: copy just takes the other array's root,
+ * and set copies the one path from the root to the leaf it changes.
+ * A run of quads that each change one or two values therefore costs
+ * a few small nodes per quad instead of a full array per quad.
+ *
+ * A subtree that holds only zeros is always null, so two arrays with
+ * the same values have the same shape, and equals and merge can stop
+ * at any subtree the two arrays share.
+ *
+ * The operations that modify the array return whether any value
+ * changed, and every change also advances its version.
+ */
+public class PersistentLongArray {
+
+    /**
+     * How merge combines two values.  0 must be an identity
+     * (merge(x, 0) == merge(0, x) == x) and merging a value with
+     * itself must give it back, as for the meet of a lattice whose
+     * top is 0.
+     */
+    public static interface Merge {
+        long merge(long mine, long theirs);
+    }
+
+    private static final int BITS = 4;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private final int length;
+    /* Index bits below the root's; 0 means the root is a leaf. */
+    private final int shift;
+    /* A long[WIDTH] leaf if shift is 0, else an Object[WIDTH] node. */
+    private Object root;
+    private long version;
+
+    public PersistentLongArray(int length) {
+        this.length = length;
+        int s = 0;
+        while (s < 28 && (length - 1) >>> s >= WIDTH) {
+            s += BITS;
+        }
+        this.shift = s;
+    }
+
+    public int length() { return length; }
+
+    /**
+     * Returns a number that changes whenever the values do, and only
+     * then.
+     */
+    public long getVersion() { return version; }
+
+    public long get(int i) {
+        if (i >= length) return 0;
+        Object node = root;
+        for (int s = shift; s > 0; s -= BITS) {
+            if (node == null) return 0;
+            node = ((Object[]) node)[(i >>> s) & MASK];
+        }
+        return (node == null) ? 0 : ((long[]) node)[i & MASK];
+    }
+
+    /**
+     * Sets value i to v; returns whether it was different.
+     */
+    public boolean set(int i, long v) {
+        if (get(i) == v) return false;
+        root = set(root, shift, i, v);
+        version++;
+        return true;
+    }
+
+    /**
+     * Sets every value to v; returns whether any value changed.
+     */
+    public boolean fill(long v) {
+        return replace((v == 0) ? null : fill(shift, 0, v));
+    }
+
+    /**
+     * Makes this array hold the values of o, sharing all of o's nodes;
+     * returns whether any value changed.
+     */
+    public boolean copy(PersistentLongArray o) {
+        return replace(o.root);
+    }
+
+    /**
+     * Replaces every value x by m.merge(x, y), where y is o's value at
+     * the same index; returns whether any value changed.  Subtrees the
+     * two arrays share, and subtrees of zeros on either side, are not
+     * visited.
+     */
+    public boolean merge(PersistentLongArray o, Merge m) {
+        Object old = root;
+        root = merge(root, o.root, shift, m);
+        if (root == old) return false;
+        version++;
+        return true;
+    }
+
+    /**
+     * Returns the smallest index at least from whose value is not 0,
+     * or -1 if there is none.
+     */
+    public int nextNonZero(int from) {
+        return nextNonZero(root, shift, 0, from);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof PersistentLongArray) {
+            PersistentLongArray a = (PersistentLongArray) o;
+            return length == a.length && equal(root, a.root, shift);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash(root, shift);
+    }
+
+    /* Makes r the root, advancing the version if its values differ. */
+    private boolean replace(Object r) {
+        boolean changed = !equal(root, r, shift);
+        root = r;
+        if (changed) version++;
+        return changed;
+    }
+
+    private static Object set(Object node, int s, int i, long v) {
+        int k = (i >>> s) & MASK;
+        if (s == 0) {
+            long[] leaf = (node == null) ? new long[WIDTH] : ((long[]) node).clone();
+            leaf[k] = v;
+            return isZero(leaf) ? null : leaf;
+        }
+        Object[] inner = (node == null) ? new Object[WIDTH] : ((Object[]) node).clone();
+        inner[k] = set(inner[k], s - BITS, i, v);
+        return isEmpty(inner) ? null : inner;
+    }
+
+    private Object fill(int s, int base, long v) {
+        if (base >= length) return null;
+        if (s == 0) {
+            long[] leaf = new long[WIDTH];
+            for (int k = 0; k < WIDTH && base + k < length; k++) {
+                leaf[k] = v;
+            }
+            return leaf;
+        }
+        Object[] inner = new Object[WIDTH];
+        for (int k = 0; k < WIDTH; k++) {
+            inner[k] = fill(s - BITS, base + (k << s), v);
+        }
+        return inner;
+    }
+
+    private static Object merge(Object a, Object b, int s, Merge m) {
+        if (a == b || b == null) return a;
+        if (a == null) return b;
+        boolean sameA = true, sameB = true;
+        if (s == 0) {
+            long[] x = (long[]) a, y = (long[]) b;
+            long[] r = new long[WIDTH];
+            for (int k = 0; k < WIDTH; k++) {
+                r[k] = m.merge(x[k], y[k]);
+                sameA &= r[k] == x[k];
+                sameB &= r[k] == y[k];
+            }
+            return sameA ? a : sameB ? b : r;
+        }
+        Object[] x = (Object[]) a, y = (Object[]) b;
+        Object[] r = new Object[WIDTH];
+        for (int k = 0; k < WIDTH; k++) {
+            r[k] = merge(x[k], y[k], s - BITS, m);
+            sameA &= r[k] == x[k];
+            sameB &= r[k] == y[k];
+        }
+        return sameA ? a : sameB ? b : r;
+    }
+
+    private static int nextNonZero(Object node, int s, int base, int from) {
+        if (node == null) return -1;
+        int k = (from <= base) ? 0 : (from - base) >>> s;
+        if (s == 0) {
+            long[] leaf = (long[]) node;
+            for (; k < WIDTH; k++) {
+                if (leaf[k] != 0) return base + k;
+            }
+            return -1;
+        }
+        Object[] inner = (Object[]) node;
+        for (; k < WIDTH; k++) {
+            int r = nextNonZero(inner[k], s - BITS, base + (k << s), from);
+            if (r >= 0) return r;
+        }
+        return -1;
+    }
+
+    private static boolean equal(Object a, Object b, int s) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        if (s == 0) return Arrays.equals((long[]) a, (long[]) b);
+        Object[] x = (Object[]) a, y = (Object[]) b;
+        for (int k = 0; k < WIDTH; k++) {
+            if (!equal(x[k], y[k], s - BITS)) return false;
+        }
+        return true;
+    }
+
+    private static int hash(Object node, int s) {
+        if (node == null) return 0;
+        if (s == 0) return Arrays.hashCode((long[]) node);
+        int h = 1;
+        for (Object child : (Object[]) node) {
+            h = 31 * h + hash(child, s - BITS);
+        }
+        return h;
+    }
+
+    private static boolean isZero(long[] leaf) {
+        for (long v : leaf) {
+            if (v != 0) return false;
+        }
+        return true;
+    }
+
+    private static boolean isEmpty(Object[] inner) {
+        for (Object child : inner) {
+            if (child != null) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,185 @@
+package flow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import joeq.Compiler.Quad.*;
+
+/**
+ * An immutable view of the quad-level control flow graph of a CFG,
+ * in the order and direction an analysis sweeps it.
+ *
+ * The quads are numbered 0..size()-1 in the order QuadIterator visits
+ * them, reverse postorder, for the forward view, and in the opposite
+ * order, postorder, for the backward one.  Predecessors and successors
+ * are taken in the view's direction, so in the backward view the
+ * predecessors of a quad are its successors in the program; they are
+ * stored in compressed sparse row form, and are walked with
+ *
+ *     for (int k = g.predBegin(n); k < g.predEnd(n); k++) {
+ *         int p = g.pred(k);
+ *     }
+ *
+ * without allocating anything.  The entry and exit of the CFG are not
+ * nodes: fromStart(n) says whether the start of the view (the entry,
+ * or the exit for the backward view) is among n's predecessors, and
+ * toEnd(n) whether the end is among its successors.
+ */
+public class QuadGraph {
+
+    private final boolean forward;
+    private final Quad[] quads;
+    private final BasicBlock[] blocks;
+    /* Node of each quad, by quad ID; -1 for IDs with no quad. */
+    private final int[] index;
+    private final int[] predStart, preds, succStart, succs;
+    private final boolean[] fromStart, toEnd;
+
+    /**
+     * Builds the view of a CFG for a forward or backward sweep.
+     */
+    public QuadGraph(ControlFlowGraph cfg, boolean forward) {
+        this.forward = forward;
+        List<Quad> list = new ArrayList<Quad>();
+        List<BasicBlock> blockList = new ArrayList<BasicBlock>();
+        List<Collection<Quad>> succ = new ArrayList<Collection<Quad>>();
+        int max = -1;
+        // QuadIterator's own backward walk fails on a CFG whose first
+        // block in that order is empty, which the optimizing passes can
+        // leave behind, so the backward view walks forward and reverses.
+        QuadIterator qit = new QuadIterator(cfg);
+        while (qit.hasNext()) {
+            Quad q = qit.next();
+            list.add(q);
+            blockList.add(qit.getCurrentBasicBlock());
+            succ.add(qit.successors1());
+            if (q.getID() > max) max = q.getID();
+        }
+
+        // the predecessors are found from the successors: QuadIterator
+        // gives an empty block with several predecessors only the first.
+        int[] at = new int[max + 1];
+        List<Collection<Quad>> pred = new ArrayList<Collection<Quad>>();
+        for (int i = 0; i < list.size(); i++) {
+            at[list.get(i).getID()] = i;
+            pred.add(new ArrayList<Quad>());
+        }
+        BasicBlock first = firstBlock(cfg.entry().getFallthroughSuccessor());
+        if (!first.isExit()) {
+            pred.get(at[first.getQuad(0).getID()]).add(null);
+        }
+        for (int i = 0; i < list.size(); i++) {
+            for (Quad s : succ.get(i)) {
+                if (s != null) pred.get(at[s.getID()]).add(list.get(i));
+            }
+        }
+
+        List<Collection<Quad>> in = forward ? pred : succ;
+        List<Collection<Quad>> out = forward ? succ : pred;
+        if (!forward) {
+            Collections.reverse(list);
+            Collections.reverse(blockList);
+            Collections.reverse(in);
+            Collections.reverse(out);
+        }
+
+        int n = list.size();
+        quads = list.toArray(new Quad[n]);
+        blocks = blockList.toArray(new BasicBlock[n]);
+        index = new int[max + 1];
+        Arrays.fill(index, -1);
+        for (int i = 0; i < n; i++) {
+            index[quads[i].getID()] = i;
+        }
+
+        fromStart = new boolean[n];
+        toEnd = new boolean[n];
+        predStart = new int[n + 1];
+        succStart = new int[n + 1];
+        preds = flatten(in, predStart, fromStart);
+        succs = flatten(out, succStart, toEnd);
+    }
+
+    /* Lays the neighbour lists out one after another, numbering them
+     * and marking the nodes whose list holds null (entry or exit). */
+    private int[] flatten(List<Collection<Quad>> lists, int[] start, boolean[] boundary) {
+        int total = 0;
+        for (int i = 0; i < lists.size(); i++) {
+            start[i] = total;
+            for (Quad q : lists.get(i)) {
+                if (q == null) boundary[i] = true;
+                else total++;
+            }
+        }
+        start[lists.size()] = total;
+        int[] flat = new int[total];
+        int k = 0;
+        for (Collection<Quad> l : lists) {
+            for (Quad q : l) {
+                if (q != null) flat[k++] = index[q.getID()];
+            }
+        }
+        return flat;
+    }
+
+    /**
+     * Returns whether this is the forward view.
+     */
+    public boolean isForward() { return forward; }
+
+    /**
+     * Returns the number of quads.
+     */
+    public int size() { return quads.length; }
+
+    /**
+     * Returns the quad numbered n.
+     */
+    public Quad getQuad(int n) { return quads[n]; }
+
+    /**
+     * Returns the basic block the quad numbered n is in.
+     */
+    public BasicBlock getBlock(int n) { return blocks[n]; }
+
+    /**
+     * Returns the number of a quad of the CFG.
+     */
+    public int indexOf(Quad q) { return index[q.getID()]; }
+
+    public int predBegin(int n) { return predStart[n]; }
+    public int predEnd(int n) { return predStart[n + 1]; }
+    public int pred(int k) { return preds[k]; }
+
+    public int succBegin(int n) { return succStart[n]; }
+    public int succEnd(int n) { return succStart[n + 1]; }
+    public int succ(int k) { return succs[k]; }
+
+    /**
+     * Returns whether the start of the view (the entry of the CFG, or
+     * its exit for the backward view) is a predecessor of node n.
+     */
+    public boolean fromStart(int n) { return fromStart[n]; }
+
+    /**
+     * Returns whether the end of the view (the exit of the CFG, or its
+     * entry for the backward view) is a successor of node n.
+     */
+    public boolean toEnd(int n) { return toEnd[n]; }
+
+    /**
+     * Returns the block control really enters when it goes to b: b
+     * itself, or the first block with quads that the empty blocks from
+     * b fall through to (the exit, if none).  An edge into b leads to
+     * the first quad of this block, so this is the block getBlock
+     * gives for the edge's end.
+     */
+    public static BasicBlock firstBlock(BasicBlock b) {
+        while (!b.isExit() && b.size() == 0) {
+            b = b.getFallthroughSuccessor();
+        }
+        return b;
+    }
+}
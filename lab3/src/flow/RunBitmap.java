@@ -0,0 +1,240 @@
+package flow;
+
+/**
+ * A set of non-negative ints stored as sorted, disjoint runs
+ * [start, end) of consecutive members.
+ *
+ * Sets of quad IDs tend to be long stretches of consecutive IDs with
+ * a few holes, so they compress well this way, and union,
+ * intersection, difference, copy and equality cost O(runs) rather
+ * than O(members).  The operations that modify the set in place
+ * return whether any member changed.
+ */
+public class RunBitmap {
+
+    private static final int OR = 0, AND = 1, AND_NOT = 2;
+
+    /* runs[2k] is the first member of run k, runs[2k+1] is one past
+     * its last member.  Runs never touch, so every boundary is strict. */
+    private int[] runs;
+    private int length;
+
+    /* Scratch space the binary operations write into. */
+    private int[] spare;
+
+    public RunBitmap() {
+        runs = new int[4];
+        spare = new int[4];
+    }
+
+    public boolean isEmpty() { return length == 0; }
+
+    /**
+     * Returns the number of runs.
+     */
+    public int runCount() { return length >> 1; }
+
+    /**
+     * Returns the first member of run k, and one past its last.
+     */
+    public int runStart(int k) { return runs[2 * k]; }
+    public int runEnd(int k) { return runs[2 * k + 1]; }
+
+    public int cardinality() {
+        int n = 0;
+        for (int k = 0; k < length; k += 2) {
+            n += runs[k + 1] - runs[k];
+        }
+        return n;
+    }
+
+    public boolean contains(int i) {
+        int k = find(i);
+        return k >= 0 && i < runs[k + 1];
+    }
+
+    /**
+     * Adds i; returns whether it was not already a member.
+     */
+    public boolean add(int i) {
+        int k = find(i);
+        if (k >= 0 && i < runs[k + 1]) return false;
+        int next = k + 2;
+        boolean extendsPrev = k >= 0 && runs[k + 1] == i;
+        boolean extendsNext = next < length && runs[next] == i + 1;
+        if (extendsPrev && extendsNext) {
+            // i fills the hole between two runs.
+            runs[k + 1] = runs[next + 1];
+            System.arraycopy(runs, next + 2, runs, next, length - next - 2);
+            length -= 2;
+        } else if (extendsPrev) {
+            runs[k + 1] = i + 1;
+        } else if (extendsNext) {
+            runs[next] = i;
+        } else {
+            ensureCapacity(length + 2);
+            System.arraycopy(runs, next, runs, next + 2, length - next);
+            runs[next] = i;
+            runs[next + 1] = i + 1;
+            length += 2;
+        }
+        return true;
+    }
+
+    /**
+     * Removes i; returns whether it was a member.
+     */
+    public boolean remove(int i) {
+        int k = find(i);
+        if (k < 0 || i >= runs[k + 1]) return false;
+        int start = runs[k], end = runs[k + 1];
+        if (start == i && end == i + 1) {
+            System.arraycopy(runs, k + 2, runs, k, length - k - 2);
+            length -= 2;
+        } else if (start == i) {
+            runs[k] = i + 1;
+        } else if (end == i + 1) {
+            runs[k + 1] = i;
+        } else {
+            ensureCapacity(length + 2);
+            System.arraycopy(runs, k + 2, runs, k + 4, length - k - 2);
+            runs[k + 1] = i;
+            runs[k + 2] = i + 1;
+            runs[k + 3] = end;
+            length += 2;
+        }
+        return true;
+    }
+
+    /**
+     * Removes every member.
+     */
+    public void clear() { length = 0; }
+
+    /**
+     * Returns the smallest member that is at least from, or -1 if
+     * there is none.
+     */
+    public int next(int from) {
+        int k = find(from);
+        if (k >= 0 && from < runs[k + 1]) return from;
+        k += 2;
+        return (k < length) ? runs[k] : -1;
+    }
+
+    /**
+     * Makes this set hold exactly the members of o.
+     */
+    public void copy(RunBitmap o) {
+        ensureCapacity(o.length);
+        System.arraycopy(o.runs, 0, runs, 0, o.length);
+        length = o.length;
+    }
+
+    /**
+     * Adds the members of o; returns whether this set changed.
+     */
+    public boolean or(RunBitmap o) { return combine(o, OR); }
+
+    /**
+     * Removes the members not in o; returns whether this set changed.
+     */
+    public boolean and(RunBitmap o) { return combine(o, AND); }
+
+    /**
+     * Removes the members of o; returns whether this set changed.
+     */
+    public boolean andNot(RunBitmap o) { return combine(o, AND_NOT); }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof RunBitmap) {
+            RunBitmap a = (RunBitmap) o;
+            return length == a.length && samePrefix(runs, a.runs, length);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for (int k = 0; k < length; k++) {
+            h = 31 * h + runs[k];
+        }
+        return h;
+    }
+
+    /**
+     * Lists the members like a sorted collection would: "[1, 2, 5]".
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int k = 0; k < length; k += 2) {
+            for (int i = runs[k]; i < runs[k + 1]; i++) {
+                if (sb.length() > 1) sb.append(", ");
+                sb.append(i);
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    /* Returns the index of the start of the last run starting at or
+     * before i, or -2 if there is none. */
+    private int find(int i) {
+        int lo = 0, hi = (length >> 1) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (runs[2 * mid] <= i) lo = mid + 1;
+            else hi = mid - 1;
+        }
+        return 2 * hi;
+    }
+
+    /* Sweeps the boundaries of both sets in order, writing a boundary
+     * to spare whenever op of the two memberships flips, then swaps
+     * spare in. */
+    private boolean combine(RunBitmap o, int op) {
+        if (spare.length < length + o.length) {
+            spare = new int[Math.max(length + o.length, 2 * spare.length)];
+        }
+        int i = 0, j = 0, n = 0;
+        boolean inA = false, inB = false, in = false;
+        while (i < length || j < o.length) {
+            int x = (j >= o.length || (i < length && runs[i] <= o.runs[j])) ? runs[i] : o.runs[j];
+            if (i < length && runs[i] == x) { inA = !inA; i++; }
+            if (j < o.length && o.runs[j] == x) { inB = !inB; j++; }
+            boolean now;
+            switch (op) {
+                case OR:  now = inA || inB; break;
+                case AND: now = inA && inB; break;
+                default:  now = inA && !inB; break;
+            }
+            if (now != in) {
+                spare[n++] = x;
+                in = now;
+            }
+        }
+        boolean changed = n != length || !samePrefix(runs, spare, n);
+        int[] t = runs;
+        runs = spare;
+        spare = t;
+        length = n;
+        return changed;
+    }
+
+    private void ensureCapacity(int n) {
+        if (runs.length < n) {
+            int[] r = new int[Math.max(n, 2 * runs.length)];
+            System.arraycopy(runs, 0, r, 0, length);
+            runs = r;
+        }
+    }
+
+    private static boolean samePrefix(int[] a, int[] b, int n) {
+        for (int k = 0; k < n; k++) {
+            if (a[k] != b[k]) return false;
+        }
+        return true;
+    }
+}
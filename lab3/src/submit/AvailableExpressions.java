@@ -0,0 +1,335 @@
+package submit;
+
+import java.util.*;
+import joeq.Compiler.Quad.*;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+import joeq.Compiler.Quad.RegisterFactory.Register;
+import flow.AnalysisContext;
+import flow.BitVector;
+import flow.FactStore;
+import flow.Flow;
+
+/**
+ * Available expressions: the expressions computed on every path to a
+ * quad whose operands have not been redefined since.
+ *
+ * An expression is an operator with its operands, so two quads
+ * compute the same expression if they apply the same operator to the
+ * same registers and constants, whatever register they put the result
+ * in.  The Binary and Unary operators are expressions, and so are the
+ * reads of memory, ALoad, ALength, Getfield and Getstatic, which are
+ * also killed by what may write the memory they read: a Putfield or
+ * Putstatic of the same field, any AStore, and calls.  Guard operands
+ * are not part of an expression.
+ *
+ * postprocess prints the expressions available before and after each
+ * quad, by their first quad's ID.
+ */
+public class AvailableExpressions implements Flow.InPlaceAnalysis {
+
+    /**
+     * The expressions of one CFG, numbered densely in quad ID order,
+     * with the sets of them each kind of write kills.
+     */
+    public static class Expressions {
+        private final AnalysisContext context;
+        /* The first quad computing each expression. */
+        private final List<Quad> first = new ArrayList<Quad>();
+        /* By quad index: the expression a quad computes, or -1. */
+        private final int[] number;
+        /* By register index. */
+        private final BitVector[] mentioning;
+        private final BitVector arrayLoads, allLoads;
+        private final Map<String, BitVector> fieldLoads = new HashMap<String, BitVector>();
+
+        public Expressions(AnalysisContext context) {
+            this.context = context;
+            number = new int[context.getNumQuads()];
+            Map<String, Integer> ids = new HashMap<String, Integer>();
+            List<List<Register>> operands = new ArrayList<List<Register>>();
+            for (int i = 0; i < number.length; i++) {
+                Quad q = context.getQuad(i);
+                String key = key(q);
+                number[i] = -1;
+                if (key == null) continue;
+                Integer e = ids.get(key);
+                if (e == null) {
+                    e = first.size();
+                    ids.put(key, e);
+                    first.add(q);
+                    List<Register> regs = new ArrayList<Register>();
+                    for (RegisterOperand use : q.getUsedRegisters()) {
+                        if (!use.getRegister().isGuard()) regs.add(use.getRegister());
+                    }
+                    operands.add(regs);
+                }
+                number[i] = e;
+            }
+
+            int n = first.size();
+            mentioning = new BitVector[context.getNumRegisters()];
+            for (int r = 0; r < mentioning.length; r++) {
+                mentioning[r] = new BitVector(n);
+            }
+            arrayLoads = new BitVector(n);
+            allLoads = new BitVector(n);
+            for (int e = 0; e < n; e++) {
+                for (Register r : operands.get(e)) {
+                    mentioning[context.getRegisterIndex(r)].set(e);
+                }
+                Quad q = first.get(e);
+                Operator opr = q.getOperator();
+                if (opr instanceof Operator.ALoad) {
+                    arrayLoads.set(e);
+                    allLoads.set(e);
+                } else if (opr instanceof Operator.Getfield || opr instanceof Operator.Getstatic) {
+                    String f = field(q);
+                    if (!fieldLoads.containsKey(f)) {
+                        fieldLoads.put(f, new BitVector(n));
+                    }
+                    fieldLoads.get(f).set(e);
+                    allLoads.set(e);
+                }
+            }
+        }
+
+        public int size() { return first.size(); }
+
+        /**
+         * Returns the first quad, in ID order, computing expression e.
+         */
+        public Quad get(int e) { return first.get(e); }
+
+        /**
+         * Returns the expression q computes, or -1 if it is none.
+         */
+        public int numberOf(Quad q) { return number[context.getQuadIndex(q)]; }
+
+        /**
+         * Returns the expressions that read r.
+         */
+        public BitVector mentioning(Register r) { return mentioning[context.getRegisterIndex(r)]; }
+
+        /* Returns the expression q computes as a string, or null if it
+         * is not one. */
+        private static String key(Quad q) {
+            Operator opr = q.getOperator();
+            Operand[] srcs;
+            if (opr instanceof Operator.Binary) {
+                srcs = new Operand[] { Operator.Binary.getSrc1(q), Operator.Binary.getSrc2(q) };
+            } else if (opr instanceof Operator.Unary) {
+                srcs = new Operand[] { Operator.Unary.getSrc(q) };
+            } else if (opr instanceof Operator.ALoad) {
+                srcs = new Operand[] { Operator.ALoad.getBase(q), Operator.ALoad.getIndex(q) };
+            } else if (opr instanceof Operator.ALength) {
+                srcs = new Operand[] { Operator.ALength.getSrc(q) };
+            } else if (opr instanceof Operator.Getfield) {
+                srcs = new Operand[] { Operator.Getfield.getBase(q), Operator.Getfield.getField(q) };
+            } else if (opr instanceof Operator.Getstatic) {
+                srcs = new Operand[] { Operator.Getstatic.getField(q) };
+            } else {
+                return null;
+            }
+            if (q.getDefinedRegisters().size() != 1) return null;
+            StringBuilder sb = new StringBuilder(opr.toString());
+            for (Operand op : srcs) {
+                sb.append(", ");
+                if (op instanceof RegisterOperand) {
+                    sb.append(((RegisterOperand) op).getRegister());
+                } else {
+                    sb.append(op);
+                }
+            }
+            return sb.toString();
+        }
+
+        private static String field(Quad q) {
+            return (q.getOperator() instanceof Operator.Getfield)
+                ? Operator.Getfield.getField(q).toString()
+                : Operator.Getstatic.getField(q).toString();
+        }
+    }
+
+    public static class ExprSet implements Flow.VersionedObject {
+        /* Bit e is set if expression e is available. */
+        private final BitVector set;
+        private final Expressions exprs;
+
+        public ExprSet(Expressions exprs) {
+            this.exprs = exprs;
+            set = new BitVector(exprs.size());
+            set.setAll();
+        }
+
+        public void setToTop() { set.setAll(); }
+        public void setToBottom() { set.clearAll(); }
+
+        public void meetWith(Flow.DataflowObject o) {
+            set.and(((ExprSet) o).set);
+        }
+
+        public void copy(Flow.DataflowObject o) {
+            set.copy(((ExprSet) o).set);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof ExprSet) {
+                return set.equals(((ExprSet) o).set);
+            }
+            return false;
+        }
+        @Override
+        public int hashCode() {
+            return set.hashCode();
+        }
+        public long getVersion() {
+            return set.getVersion();
+        }
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("[");
+            for (int e = set.nextSetBit(0); e >= 0; e = set.nextSetBit(e + 1)) {
+                if (sb.length() > 1) sb.append(", ");
+                sb.append(exprs.get(e).getID());
+            }
+            return sb.append(']').toString();
+        }
+
+        public boolean has(int e) { return set.get(e); }
+        public void gen(int e) { set.set(e); }
+
+        /**
+         * Kills the expressions that read r.
+         */
+        public void kill(Register r) {
+            set.andNot(exprs.mentioning[exprs.context.getRegisterIndex(r)]);
+        }
+
+        /**
+         * Kills the loads a write of memory by q may change.
+         */
+        public void killLoads(Quad q) {
+            Operator opr = q.getOperator();
+            if (opr instanceof Operator.AStore) {
+                set.andNot(exprs.arrayLoads);
+            } else if (opr instanceof Operator.Putfield || opr instanceof Operator.Putstatic) {
+                String f = (opr instanceof Operator.Putfield)
+                    ? Operator.Putfield.getField(q).toString()
+                    : Operator.Putstatic.getField(q).toString();
+                BitVector loads = exprs.fieldLoads.get(f);
+                if (loads != null) set.andNot(loads);
+            } else if (opr instanceof Operator.Invoke || opr instanceof Operator.Monitor
+                       || opr instanceof Operator.MemStore || opr instanceof Operator.Special) {
+                set.andNot(exprs.allLoads);
+            }
+        }
+    }
+
+    protected FactStore facts;
+    protected ExprSet entry, exit;
+    protected AnalysisContext context;
+    protected Expressions exprs;
+
+    public void preprocess(ControlFlowGraph cfg) {
+        context = new AnalysisContext(cfg);
+        exprs = new Expressions(context);
+
+        entry = new ExprSet(exprs);
+        exit = new ExprSet(exprs);
+        facts = new FactStore(context, this, transferfn);
+
+        /* Nothing is available on entry. */
+        entry.setToBottom();
+    }
+
+    public void postprocess(ControlFlowGraph cfg) {
+        System.out.println("Method: "+cfg.getMethod().getName().toString());
+        System.out.println("entry: "+entry.toString());
+        for (int i=0; i<facts.size(); i++) {
+            if (facts.getQuad(i) != null) {
+                System.out.println(i+" in:  "+facts.peekIn(i).toString());
+                System.out.println(i+" out: "+facts.peekOut(i).toString());
+            }
+        }
+        System.out.println("exit: "+exit.toString());
+    }
+
+    /* Is this a forward dataflow analysis? */
+    public boolean isForward() { return true; }
+
+    /* Routines for interacting with dataflow values. */
+
+    public Flow.DataflowObject getEntry() {
+        Flow.DataflowObject result = newTempVar();
+        result.copy(entry);
+        return result;
+    }
+    public Flow.DataflowObject getExit() {
+        Flow.DataflowObject result = newTempVar();
+        result.copy(exit);
+        return result;
+    }
+    public Flow.DataflowObject getIn(Quad q) {
+        return facts.getIn(q);
+    }
+    public Flow.DataflowObject getOut(Quad q) {
+        return facts.getOut(q);
+    }
+    public void setIn(Quad q, Flow.DataflowObject value) {
+        facts.setIn(q, value);
+    }
+    public void setOut(Quad q, Flow.DataflowObject value) {
+        facts.setOut(q, value);
+    }
+    public void setEntry(Flow.DataflowObject value) {
+        entry.copy(value);
+    }
+    public void setExit(Flow.DataflowObject value) {
+        exit.copy(value);
+    }
+
+    public Flow.DataflowObject peekEntry() { return entry; }
+    public Flow.DataflowObject peekExit() { return exit; }
+    public Flow.DataflowObject peekIn(Quad q) { return facts.peekIn(q); }
+    public Flow.DataflowObject peekOut(Quad q) { return facts.peekOut(q); }
+
+    public Flow.DataflowObject newTempVar() { return new ExprSet(exprs); }
+
+    /* Actually perform the transfer operation on the relevant
+     * quad. */
+
+    private TransferFunction transferfn = new TransferFunction();
+    public void processQuad(Quad q) {
+        transfer(q);
+    }
+
+    public boolean transfer(Quad q) {
+        return facts.transfer(q);
+    }
+
+    /* The QuadVisitor that actually does the computation.  A quad
+     * makes its own expression available unless it redefines one of
+     * the expression's operands. */
+    public static class TransferFunction extends QuadVisitor.EmptyVisitor implements FactStore.Transfer {
+        ExprSet val;
+        public void apply(Quad q, Flow.DataflowObject v) {
+            val = (ExprSet) v;
+            visitQuad(q);
+        }
+        @Override
+        public void visitQuad(Quad q) {
+            val.killLoads(q);
+            for (RegisterOperand def : q.getDefinedRegisters()) {
+                val.kill(def.getRegister());
+            }
+            int e = val.exprs.numberOf(q);
+            if (e >= 0) {
+                Register def = q.getDefinedRegisters().get(0).getRegister();
+                if (!val.exprs.mentioning[val.exprs.context.getRegisterIndex(def)].get(e)) {
+                    val.gen(e);
+                }
+            }
+        }
+    }
+}
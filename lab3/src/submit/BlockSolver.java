@@ -0,0 +1,16 @@
+package submit;
+
+/**
+ * Flow.Solver that iterates over basic blocks instead of quads.
+ *
+ * The worklist holds whole basic blocks.  Inside a block the quads
+ * are chained: the output of one quad is handed to the next without a
+ * meet, and only the values leaving the block (or read across an
+ * exception edge) are compared to decide what to revisit.  The
+ * per-quad values left behind by the last visit of each block are the
+ * fixpoint, so analyses see exactly what MySolver would give them.
+ */
+public class BlockSolver extends WorklistSolver {
+
+    public BlockSolver() { super(true); }
+}
@@ -0,0 +1,152 @@
+package submit;
+
+import java.util.*;
+import joeq.Compiler.Quad.*;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+import joeq.Compiler.Quad.RegisterFactory.Register;
+import flow.Components;
+import flow.QuadGraph;
+
+/**
+ * Global common subexpression elimination on top of
+ * AvailableExpressions.
+ *
+ * A quad whose expression is available before it is redundant.  Every
+ * expression computed redundantly somewhere gets a new register: each
+ * quad that computes it for real copies its result there, and each
+ * redundant quad becomes a Move from there.  Whichever computation
+ * happened last on the way to a redundant quad left the value in the
+ * new register, and nothing changed its operands since.
+ *
+ * The copies are then left to CopyPropagation and Liveness, which
+ * drop both Moves wherever the first result is still in its register.
+ * Where they cannot, the Move after a computation runs each time it
+ * does, so an expression is only reused if each of its computations
+ * is outside every loop, or in a loop around one of the quads that
+ * reuse it: a load in an inner loop is not worth copying on every
+ * iteration for the one reuse after the loop.  Run with
+ * -Dflow.stats=true to print, per method, the redundant quads and the
+ * registers their values are saved in.
+ */
+public class CommonSubexpressions extends AvailableExpressions {
+
+    public void postprocess(ControlFlowGraph cfg) {
+        List<Quad> quads = new ArrayList<Quad>();
+        List<BasicBlock> blocks = new ArrayList<BasicBlock>();
+        List<Boolean> redundant = new ArrayList<Boolean>();
+        Register[] saved = new Register[exprs.size()];
+        LoopNest loops = new LoopNest(new QuadGraph(cfg, true));
+
+        QuadIterator qit = new QuadIterator(cfg);
+        while (qit.hasNext()) {
+            Quad q = qit.next();
+            int e = exprs.numberOf(q);
+            if (e < 0) continue;
+            boolean r = ((ExprSet) facts.peekIn(q)).has(e);
+            quads.add(q);
+            blocks.add(qit.getCurrentBasicBlock());
+            redundant.add(r);
+        }
+
+        // reuse[e] is set if no computation of e is in a loop that
+        // none of its redundant quads are in.
+        boolean[] reuse = new boolean[exprs.size()];
+        for (int i = 0; i < quads.size(); i++) {
+            reuse[exprs.numberOf(quads.get(i))] |= redundant.get(i);
+        }
+        for (int i = 0; i < quads.size(); i++) {
+            int e = exprs.numberOf(quads.get(i));
+            if (!reuse[e] || redundant.get(i)) continue;
+            boolean around = false;
+            for (int j = 0; j < quads.size() && !around; j++) {
+                around = redundant.get(j) && exprs.numberOf(quads.get(j)) == e
+                    && loops.encloses(quads.get(i), quads.get(j));
+            }
+            reuse[e] = around;
+        }
+        int savedCount = 0;
+        for (int i = 0; i < quads.size(); i++) {
+            int e = exprs.numberOf(quads.get(i));
+            if (reuse[e] && saved[e] == null) {
+                RegisterOperand def = quads.get(i).getDefinedRegisters().get(0);
+                saved[e] = cfg.getRegisterFactory().makeTempReg(def.getRegister().getType());
+                savedCount++;
+            }
+        }
+
+        int reused = 0;
+
+        for (int i = 0; i < quads.size(); i++) {
+            Quad q = quads.get(i);
+            int e = exprs.numberOf(q);
+            if (saved[e] == null) continue;
+            BasicBlock b = blocks.get(i);
+            RegisterOperand def = q.getDefinedRegisters().get(0);
+            Operator.Move move = Operator.Move.getMoveOp(def.getType());
+            RegisterOperand temp = new RegisterOperand(saved[e], def.getType());
+            if (redundant.get(i)) {
+                b.replaceQuad(b.getQuadIndex(q), Operator.Move.create(q.getID(), move,
+                    (RegisterOperand) def.copy(), temp));
+                reused++;
+            } else {
+                b.addQuad(b.getQuadIndex(q) + 1, Operator.Move.create(cfg.getNewQuadID(), move,
+                    temp, def.copy()));
+            }
+        }
+
+        if (Boolean.getBoolean("flow.stats")) {
+            System.err.println(cfg.getMethod().getName() + ": " + reused
+                + " redundant quads reused " + savedCount + " saved values");
+        }
+    }
+
+    /**
+     * The loops of a QuadGraph, found the way SCCSolver finds them: a
+     * component with a cycle is a loop, and the loops nested in it are
+     * those of the component once its first node is taken out.
+     */
+    static class LoopNest {
+        private final QuadGraph g;
+        /* By node: the innermost loop around it, or -1. */
+        private final int[] innermost;
+        /* By loop: the loop around it, or -1. */
+        private final List<Integer> parent = new ArrayList<Integer>();
+
+        LoopNest(QuadGraph g) {
+            this.g = g;
+            innermost = new int[g.size()];
+            int[] all = new int[g.size()];
+            for (int n = 0; n < all.length; n++) {
+                all[n] = n;
+                innermost[n] = -1;
+            }
+            find(all, -1);
+        }
+
+        private void find(int[] subset, int outer) {
+            Components sccs = new Components(g, subset);
+            for (int c = 0; c < sccs.count(); c++) {
+                if (!sccs.isLoop(c)) continue;
+                int loop = parent.size();
+                parent.add(outer);
+                int[] rest = new int[sccs.end(c) - sccs.begin(c) - 1];
+                for (int k = sccs.begin(c); k < sccs.end(c); k++) {
+                    innermost[sccs.node(k)] = loop;
+                    if (k > sccs.begin(c)) rest[k - sccs.begin(c) - 1] = sccs.node(k);
+                }
+                find(rest, loop);
+            }
+        }
+
+        /**
+         * Returns whether every loop around a is also around b.
+         */
+        boolean encloses(Quad a, Quad b) {
+            int loop = innermost[g.indexOf(a)];
+            for (int l = innermost[g.indexOf(b)]; l != loop; l = parent.get(l)) {
+                if (l < 0) return false;
+            }
+            return true;
+        }
+    }
+}
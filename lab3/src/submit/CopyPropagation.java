@@ -0,0 +1,315 @@
+package submit;
+
+import java.util.*;
+import joeq.Compiler.Quad.*;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+import joeq.Compiler.Quad.RegisterFactory.Register;
+import flow.AnalysisContext;
+import flow.BitVector;
+import flow.FactStore;
+import flow.Flow;
+
+/**
+ * Copy propagation: finds the copies, Moves from one register to
+ * another, that hold on every path to a quad, and has the quad read
+ * the register the value was first copied from instead, following
+ * chains of copies back to their start.  The Moves whose destination
+ * is then never read are left to the Liveness pass after this one.
+ *
+ * Run with -Dflow.stats=true to print, per method, the uses rewritten
+ * and the Moves and registers the Liveness pass will be able to drop.
+ */
+public class CopyPropagation implements Flow.InPlaceAnalysis {
+
+    /**
+     * The copies of one CFG: the Moves from a register to another
+     * one, numbered densely, with for each register the copies that
+     * write it and the copies that mention it at all.
+     */
+    public static class Copies {
+        private final AnalysisContext context;
+        private final List<Quad> moves = new ArrayList<Quad>();
+        /* By copy: its registers, as they were when the copies were
+         * found, since postprocess rewrites the Moves' sources. */
+        private final List<Register> dsts = new ArrayList<Register>();
+        private final List<Register> srcs = new ArrayList<Register>();
+        /* By quad index: the copy a quad is, or -1. */
+        private final int[] number;
+        /* By register index. */
+        private final List<List<Integer>> writing = new ArrayList<List<Integer>>();
+        private final BitVector[] mentioning;
+
+        public Copies(AnalysisContext context) {
+            this.context = context;
+            number = new int[context.getNumQuads()];
+            for (int i = 0; i < number.length; i++) {
+                Quad q = context.getQuad(i);
+                number[i] = -1;
+                if (q.getOperator() instanceof Operator.Move
+                    && Operator.Move.getSrc(q) instanceof RegisterOperand
+                    && src(q) != dst(q)) {
+                    number[i] = moves.size();
+                    moves.add(q);
+                    dsts.add(dst(q));
+                    srcs.add(src(q));
+                }
+            }
+            int n = context.getNumRegisters();
+            mentioning = new BitVector[n];
+            for (int r = 0; r < n; r++) {
+                writing.add(new ArrayList<Integer>());
+                mentioning[r] = new BitVector(moves.size());
+            }
+            for (int c = 0; c < moves.size(); c++) {
+                int d = context.getRegisterIndex(dsts.get(c));
+                int s = context.getRegisterIndex(srcs.get(c));
+                writing.get(d).add(c);
+                mentioning[d].set(c);
+                mentioning[s].set(c);
+            }
+        }
+
+        public int size() { return moves.size(); }
+        public Quad get(int c) { return moves.get(c); }
+
+        /**
+         * Returns the number of the copy q is, or -1 if it is none.
+         */
+        public int numberOf(Quad q) { return number[context.getQuadIndex(q)]; }
+
+        /**
+         * Returns the register copy c writes, and the one it reads.
+         */
+        public Register dst(int c) { return dsts.get(c); }
+        public Register src(int c) { return srcs.get(c); }
+
+        public static Register dst(Quad q) { return Operator.Move.getDest(q).getRegister(); }
+        public static Register src(Quad q) { return ((RegisterOperand) Operator.Move.getSrc(q)).getRegister(); }
+    }
+
+    public static class CopySet implements Flow.VersionedObject {
+        /* Bit c is set if copy c holds. */
+        private final BitVector set;
+        private final AnalysisContext context;
+        private final Copies copies;
+
+        public CopySet(AnalysisContext context, Copies copies) {
+            this.context = context;
+            this.copies = copies;
+            set = new BitVector(copies.size());
+            set.setAll();
+        }
+
+        public void setToTop() { set.setAll(); }
+        public void setToBottom() { set.clearAll(); }
+
+        public void meetWith(Flow.DataflowObject o) {
+            set.and(((CopySet) o).set);
+        }
+
+        public void copy(Flow.DataflowObject o) {
+            set.copy(((CopySet) o).set);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof CopySet) {
+                return set.equals(((CopySet) o).set);
+            }
+            return false;
+        }
+        @Override
+        public int hashCode() {
+            return set.hashCode();
+        }
+        public long getVersion() {
+            return set.getVersion();
+        }
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("[");
+            for (int c = set.nextSetBit(0); c >= 0; c = set.nextSetBit(c + 1)) {
+                if (sb.length() > 1) sb.append(", ");
+                sb.append(copies.dst(c)).append('=').append(copies.src(c));
+            }
+            return sb.append(']').toString();
+        }
+
+        /**
+         * Kills the copies a definition of r makes stale.
+         */
+        public void kill(Register r) {
+            set.andNot(copies.mentioning[context.getRegisterIndex(r)]);
+        }
+        public void gen(int c) { set.set(c); }
+
+        /**
+         * Returns the register r holds a copy of, by the copies that
+         * hold here, or r itself if it holds no copy.
+         */
+        public Register origin(Register r) {
+            // a copy kills the ones reading what it writes, so the
+            // copies that hold never form a cycle.
+            for (int steps = 0; steps < copies.size(); steps++) {
+                Register from = null;
+                for (int c : copies.writing.get(context.getRegisterIndex(r))) {
+                    if (set.get(c)) {
+                        from = copies.src(c);
+                        break;
+                    }
+                }
+                if (from == null) break;
+                r = from;
+            }
+            return r;
+        }
+    }
+
+    private FactStore facts;
+    private CopySet entry, exit;
+    private AnalysisContext context;
+    private Copies copies;
+
+    public void preprocess(ControlFlowGraph cfg) {
+        context = new AnalysisContext(cfg);
+        copies = new Copies(context);
+
+        entry = new CopySet(context, copies);
+        exit = new CopySet(context, copies);
+        facts = new FactStore(context, this, transferfn);
+
+        /* No copy holds on entry. */
+        entry.setToBottom();
+    }
+
+    /**
+     * Rewrites every use of a register that holds a copy to the
+     * register the value came from.
+     */
+    public void postprocess(ControlFlowGraph cfg) {
+        int rewritten = 0;
+        QuadIterator qit = new QuadIterator(cfg);
+        while (qit.hasNext()) {
+            Quad q = qit.next();
+            CopySet in = (CopySet) facts.peekIn(q);
+            for (RegisterOperand use : q.getUsedRegisters()) {
+                Register from = in.origin(use.getRegister());
+                if (from != use.getRegister()) {
+                    use.setRegister(from);
+                    rewritten++;
+                }
+            }
+        }
+
+        if (Boolean.getBoolean("flow.stats")) {
+            report(cfg, rewritten);
+        }
+    }
+
+    /* Prints the uses rewritten, and the copies left unread along
+     * with the registers only they mention, which Liveness drops. */
+    private void report(ControlFlowGraph cfg, int rewritten) {
+        BitVector read = new BitVector(context.getNumRegisters());
+        QuadIterator qit = new QuadIterator(cfg);
+        while (qit.hasNext()) {
+            for (RegisterOperand use : qit.next().getUsedRegisters()) {
+                read.set(context.getRegisterIndex(use.getRegister()));
+            }
+        }
+        int dead = 0;
+        BitVector kept = new BitVector(context.getNumRegisters());
+        qit = new QuadIterator(cfg);
+        while (qit.hasNext()) {
+            Quad q = qit.next();
+            if (copies.numberOf(q) >= 0 && !read.get(context.getRegisterIndex(Copies.dst(q)))) {
+                dead++;
+                continue;
+            }
+            for (RegisterOperand def : q.getDefinedRegisters()) {
+                kept.set(context.getRegisterIndex(def.getRegister()));
+            }
+            for (RegisterOperand use : q.getUsedRegisters()) {
+                kept.set(context.getRegisterIndex(use.getRegister()));
+            }
+        }
+        int numargs = cfg.getMethod().getParamTypes().length;
+        for (int i = 0; i < numargs; i++) {
+            kept.set(context.getRegisterIndex("R"+i));
+        }
+        System.err.println(cfg.getMethod().getName() + ": " + rewritten
+            + " uses rewritten, " + dead + " moves and "
+            + (context.getNumRegisters() - kept.cardinality()) + " registers eliminated");
+    }
+
+    /* Is this a forward dataflow analysis? */
+    public boolean isForward() { return true; }
+
+    /* Routines for interacting with dataflow values. */
+
+    public Flow.DataflowObject getEntry() {
+        Flow.DataflowObject result = newTempVar();
+        result.copy(entry);
+        return result;
+    }
+    public Flow.DataflowObject getExit() {
+        Flow.DataflowObject result = newTempVar();
+        result.copy(exit);
+        return result;
+    }
+    public Flow.DataflowObject getIn(Quad q) {
+        return facts.getIn(q);
+    }
+    public Flow.DataflowObject getOut(Quad q) {
+        return facts.getOut(q);
+    }
+    public void setIn(Quad q, Flow.DataflowObject value) {
+        facts.setIn(q, value);
+    }
+    public void setOut(Quad q, Flow.DataflowObject value) {
+        facts.setOut(q, value);
+    }
+    public void setEntry(Flow.DataflowObject value) {
+        entry.copy(value);
+    }
+    public void setExit(Flow.DataflowObject value) {
+        exit.copy(value);
+    }
+
+    public Flow.DataflowObject peekEntry() { return entry; }
+    public Flow.DataflowObject peekExit() { return exit; }
+    public Flow.DataflowObject peekIn(Quad q) { return facts.peekIn(q); }
+    public Flow.DataflowObject peekOut(Quad q) { return facts.peekOut(q); }
+
+    public Flow.DataflowObject newTempVar() { return new CopySet(context, copies); }
+
+    /* Actually perform the transfer operation on the relevant
+     * quad. */
+
+    private TransferFunction transferfn = new TransferFunction();
+    public void processQuad(Quad q) {
+        transfer(q);
+    }
+
+    public boolean transfer(Quad q) {
+        return facts.transfer(q);
+    }
+
+    /* The QuadVisitor that actually does the computation */
+    public static class TransferFunction extends QuadVisitor.EmptyVisitor implements FactStore.Transfer {
+        CopySet val;
+        public void apply(Quad q, Flow.DataflowObject v) {
+            val = (CopySet) v;
+            visitQuad(q);
+        }
+        @Override
+        public void visitQuad(Quad q) {
+            for (RegisterOperand def : q.getDefinedRegisters()) {
+                val.kill(def.getRegister());
+            }
+            int c = val.copies.numberOf(q);
+            if (c >= 0) {
+                val.gen(c);
+            }
+        }
+    }
+}
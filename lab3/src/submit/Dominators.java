@@ -0,0 +1,133 @@
+package submit;
+
+import flow.QuadGraph;
+
+/**
+ * The dominator tree of the quads of a forward QuadGraph, found with
+ * the iterative algorithm of Cooper, Harvey and Kennedy.
+ *
+ * A quad dominates another if every path from the entry to the second
+ * goes through the first.  The edges are QuadGraph's, so a quad that
+ * may throw into a handler dominates it, but the quads after it in its
+ * block do not.  The entry itself is not a node: the quads it leads to
+ * directly have no immediate dominator, and are the roots of the tree.
+ * A quad no path from the entry reaches, such as a handler nothing
+ * left can throw into, is not in the tree at all: it neither
+ * dominates nor is dominated by anything.
+ *
+ * The nodes are numbered as in the graph, and the tree is kept with
+ * preorder and postorder numbers, so that dominates answers in
+ * constant time and preorder() lists every quad after its dominators.
+ */
+public class Dominators {
+
+    private final QuadGraph g;
+    private final int[] idom;
+    private final int[] pre, post, order;
+
+    public Dominators(QuadGraph g) {
+        this.g = g;
+        int n = g.size();
+        // the graph's nodes are in reverse postorder, so a dominator
+        // always has a lower number than the quads it dominates, and
+        // one sweep in node order sees each quad after most of its
+        // predecessors.  -1 stands for the entry.
+        idom = new int[n];
+        java.util.Arrays.fill(idom, -2);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int v = 0; v < n; v++) {
+                int d = g.fromStart(v) ? -1 : -2;
+                for (int k = g.predBegin(v); k < g.predEnd(v); k++) {
+                    int p = g.pred(k);
+                    if (idom[p] == -2) continue;
+                    d = (d == -2) ? p : intersect(d, p);
+                }
+                if (d != idom[v]) {
+                    idom[v] = d;
+                    changed = true;
+                }
+            }
+        }
+
+        // number the tree depth first, with the children of each node
+        // found by walking the node's list of them.  -2 is still the
+        // idom of the quads never reached.
+        int reached = 0;
+        int[] childStart = new int[n + 2];
+        for (int v = 0; v < n; v++) {
+            if (idom[v] == -2) continue;
+            childStart[idom[v] + 2]++;
+            reached++;
+        }
+        for (int i = 1; i < childStart.length; i++) {
+            childStart[i] += childStart[i - 1];
+        }
+        int[] children = new int[reached];
+        int[] fill = childStart.clone();
+        for (int v = 0; v < n; v++) {
+            if (idom[v] == -2) continue;
+            children[fill[idom[v] + 1]++] = v;
+        }
+
+        pre = new int[n];
+        post = new int[n];
+        java.util.Arrays.fill(pre, -1);
+        java.util.Arrays.fill(post, -1);
+        order = new int[reached];
+        int[] stack = new int[n + 1], next = new int[n + 1];
+        int sp = 0, preCount = 0, postCount = 0;
+        stack[sp] = -1;
+        next[sp++] = childStart[0];
+        while (sp > 0) {
+            int v = stack[sp - 1];
+            if (next[sp - 1] < childStart[v + 2]) {
+                int c = children[next[sp - 1]++];
+                pre[c] = preCount;
+                order[preCount++] = c;
+                stack[sp] = c;
+                next[sp++] = childStart[c + 1];
+                continue;
+            }
+            sp--;
+            if (v >= 0) post[v] = postCount++;
+        }
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (a > b) a = idom[a];
+            while (b > a) b = idom[b];
+        }
+        return a;
+    }
+
+    public QuadGraph getGraph() { return g; }
+
+    /**
+     * Returns the immediate dominator of node n, -1 if the entry leads
+     * to n directly, or -2 if n is never reached.
+     */
+    public int idom(int n) { return idom[n]; }
+
+    /**
+     * Returns whether some path from the entry reaches node n.
+     */
+    public boolean isReached(int n) { return idom[n] != -2; }
+
+    /**
+     * Returns whether node a dominates node b; a node dominates
+     * itself.  Nodes never reached dominate nothing and are dominated
+     * by nothing.
+     */
+    public boolean dominates(int a, int b) {
+        if (pre[a] < 0 || pre[b] < 0) return false;
+        return pre[a] <= pre[b] && post[b] <= post[a];
+    }
+
+    /**
+     * Returns the nodes reached in preorder of the tree.
+     */
+    public int[] preorder() { return order; }
+}
@@ -1,9 +1,13 @@
 package submit;
 
+import java.util.ArrayList;
+import java.util.List;
 import joeq.Class.jq_Class;
+import joeq.Compiler.Quad.ControlFlowGraph;
 import joeq.Main.Helper;
 import submit.NullChecked;
-import submit.MySolver;
+import submit.WorklistSolver;
+import flow.ParallelDriver;
 
 public class FindRedundantNullChecks {
 
@@ -15,23 +19,22 @@ public class FindRedundantNullChecks {
     public static void main(String[] args) {
         //fill me in
 
-        // get an instance of the solver class.
-        MySolver solver = new MySolver();
-
-        // get an instance of the analysis class.
-        NullChecked analysis = new NullChecked();
-
         // get the classes we will be visiting.
         jq_Class[] classes = new jq_Class[args.length];
         for (int i=0; i < classes.length; i++)
             classes[i] = (jq_Class)Helper.load(args[i]);
 
-        // register the analysis with the solver.
-        solver.registerAnalysis(analysis);
-
-        // visit each of the specified classes with the solver.
+        // collect the methods of all the classes.
+        List<ControlFlowGraph> cfgs = new ArrayList<ControlFlowGraph>();
         for (int i=0; i < classes.length; i++) {
-            Helper.runPass(classes[i], solver);
+            cfgs.addAll(ParallelDriver.getCFGs(classes[i]));
+        }
+
+        // visit them with one solver and analysis per worker thread.
+        ParallelDriver driver = new ParallelDriver(WorklistSolver.class,
+            NullChecked.class, ParallelDriver.defaultThreads());
+        for (String s : driver.run(cfgs)) {
+            System.out.print(s);
         }
     }
 }
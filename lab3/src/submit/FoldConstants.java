@@ -0,0 +1,600 @@
+package submit;
+
+import java.util.*;
+import joeq.Compiler.Quad.*;
+import joeq.Compiler.Quad.Operand.*;
+import joeq.Compiler.Quad.RegisterFactory.Register;
+import joeq.Compiler.BytecodeAnalysis.BytecodeVisitor;
+import flow.AnalysisContext;
+import flow.FactStore;
+import flow.Flow;
+import flow.PersistentLongArray;
+import flow.QuadGraph;
+import joeq.Main.Helper;
+
+/**
+ * Sparse conditional constant propagation over every primitive Move,
+ * Binary and Unary operator, int, long, float and double alike, which
+ * then rewrites the method: a quad whose result is always the same
+ * constant becomes a Move of that constant, and a register operand of
+ * a Binary, Unary or IntIfCmp that always holds a constant is replaced
+ * by the constant.  The computations that fed only those operands are
+ * left without uses, so the Liveness pass after this one removes them.
+ *
+ * Besides the registers, a table says whether the point it describes
+ * is reached at all; top is unreached.  An IntIfCmp whose outcome the
+ * constants decide sends top along the edge it never takes, so what
+ * only that edge leads to stays unreached and does not weaken the
+ * constants where the arms meet.  Such branches become Gotos, or go
+ * away if they are never taken, and the blocks no longer reached are
+ * cut out of the CFG.  This needs a solver that refines along edges,
+ * such as SCCSolver; with any other, branches are still folded, just
+ * fewer of them.
+ *
+ * Operations that would throw (integer division by zero) and float
+ * comparisons with NaN are never folded.  Of the references, only
+ * null is a constant.  Run with -Dflow.stats=true to print, per
+ * method, the quads folded into Moves of a constant and the branches
+ * decided.
+ */
+public class FoldConstants implements Flow.InPlaceAnalysis, Flow.EdgeAnalysis {
+
+    /**
+     * The constants one CFG's tables refer to.  A constant is a boxed
+     * Integer, Long, Float or Double, or NULL, and gets a dense id the first
+     * time it is seen, so a table can keep it in the low word of its
+     * long entries.  Boxed equality compares floats by their bits, so
+     * 0.0 and -0.0 are different constants and NaN is one constant.
+     */
+    public static class Constants {
+        private final List<Object> values = new ArrayList<Object>();
+        private final Map<Object, Integer> ids = new HashMap<Object, Integer>();
+
+        public int id(Object c) {
+            Integer i = ids.get(c);
+            if (i == null) {
+                i = values.size();
+                values.add(c);
+                ids.put(c, i);
+            }
+            return i;
+        }
+        public Object get(int id) { return values.get(id); }
+    }
+
+    /**
+     * The constant a register holding the null reference has.
+     */
+    public static final Object NULL = new Object() {
+        @Override
+        public String toString() { return "null"; }
+    };
+
+    public static class ConstTable implements Flow.VersionedObject {
+        /* values.get(r) holds the lattice value of the register with
+         * index r in the context: 0 is undef, NAC is NAC, and anything
+         * else is a constant, with its id in the pool in the low
+         * word.  The entry after the last register is 0 where the
+         * point is not reached, and NAC where it is. */
+        private final PersistentLongArray values;
+        private final AnalysisContext context;
+        private final Constants pool;
+
+        private static final long NAC = 2L << 32;
+
+        private static final PersistentLongArray.Merge MEET = new PersistentLongArray.Merge() {
+            public long merge(long mine, long theirs) {
+                if (mine == theirs || theirs == 0) return mine;
+                if (mine == 0) return theirs;
+                return NAC;
+            }
+        };
+
+        public ConstTable(AnalysisContext context, Constants pool) {
+            this.context = context;
+            this.pool = pool;
+            values = new PersistentLongArray(context.getNumRegisters() + 1);
+        }
+
+        public void setToTop() { values.fill(0); }
+        public void setToBottom() { values.fill(NAC); }
+
+        public void meetWith(Flow.DataflowObject o) {
+            values.merge(((ConstTable) o).values, MEET);
+        }
+
+        public void copy(Flow.DataflowObject o) {
+            values.copy(((ConstTable) o).values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof ConstTable) {
+                return values.equals(((ConstTable) o).values);
+            }
+            return false;
+        }
+        @Override
+        public int hashCode() {
+            return values.hashCode();
+        }
+        public long getVersion() {
+            return values.getVersion();
+        }
+        @Override
+        public String toString() {
+            if (!isReached()) return "unreached";
+            StringBuilder sb = new StringBuilder("{");
+            for (int r = 0; r < context.getNumRegisters(); r++) {
+                if (r > 0) sb.append(", ");
+                sb.append(context.getRegisterName(r)).append('=');
+                long v = values.get(r);
+                if (v == 0) sb.append("undef");
+                else if (v == NAC) sb.append("NAC");
+                else sb.append(pool.get((int) v));
+            }
+            return sb.append('}').toString();
+        }
+
+        /**
+         * Returns the constant a register holds, or null if it is
+         * undef or NAC.
+         */
+        public Object getConst(Register r) {
+            long v = values.get(context.getRegisterIndex(r));
+            return (v == 0 || v == NAC) ? null : pool.get((int) v);
+        }
+        public boolean isNAC(Register r) { return values.get(context.getRegisterIndex(r)) == NAC; }
+        public boolean isUndef(Register r) { return values.get(context.getRegisterIndex(r)) == 0; }
+        public boolean isReached() { return values.get(context.getNumRegisters()) != 0; }
+
+        /**
+         * Returns the constant an operand always holds, or null if it
+         * may hold anything.
+         */
+        public Object getConst(Operand op) {
+            if (op instanceof RegisterOperand) return getConst(((RegisterOperand) op).getRegister());
+            if (op instanceof IConstOperand) return ((IConstOperand) op).getValue();
+            if (op instanceof LConstOperand) return ((LConstOperand) op).getValue();
+            if (op instanceof FConstOperand) return ((FConstOperand) op).getValue();
+            if (op instanceof DConstOperand) return ((DConstOperand) op).getValue();
+            if (op instanceof AConstOperand && ((AConstOperand) op).getValue() == null) return NULL;
+            return null;
+        }
+
+        public void setNAC(Register r) { values.set(context.getRegisterIndex(r), NAC); }
+        public void setConst(Register r, Object c) {
+            values.set(context.getRegisterIndex(r), (1L << 32) | pool.id(c));
+        }
+        public void transfer(Register dst, Register src) {
+            values.set(context.getRegisterIndex(dst), values.get(context.getRegisterIndex(src)));
+        }
+    }
+
+    private FactStore facts;
+    private ConstTable entry, exit;
+    private AnalysisContext context;
+    private Constants pool;
+    /* For each IntIfCmp, by quad index, the block it falls through to. */
+    private BasicBlock[] fallthrough;
+
+    public void preprocess(ControlFlowGraph cfg) {
+        context = new AnalysisContext(cfg);
+        pool = new Constants();
+
+        entry = new ConstTable(context, pool);
+        exit = new ConstTable(context, pool);
+        facts = new FactStore(context, this, transferfn);
+
+        /* Arguments are unknown.  Every other register is assigned
+         * before it is read, so it is safe to start it at NAC too, and
+         * that saves finding out which locals hold the arguments.  The
+         * entry is reached. */
+        entry.setToBottom();
+
+        fallthrough = new BasicBlock[context.getNumQuads()];
+        QuadIterator qit = new QuadIterator(cfg);
+        while (qit.hasNext()) {
+            Quad q = qit.next();
+            if (q.getOperator() instanceof Operator.IntIfCmp) {
+                fallthrough[context.getQuadIndex(q)] = qit.getCurrentBasicBlock().getFallthroughSuccessor();
+            }
+        }
+    }
+
+    /**
+     * Rewrites the CFG with the constants found.
+     */
+    public void postprocess(ControlFlowGraph cfg) {
+        List<Quad> branches = new ArrayList<Quad>();
+        List<BasicBlock> branchBlocks = new ArrayList<BasicBlock>();
+        List<Boolean> outcomes = new ArrayList<Boolean>();
+        int folded = 0;
+
+        QuadIterator qit = new QuadIterator(cfg);
+        while (qit.hasNext()) {
+            Quad q = qit.next();
+            Operator opr = q.getOperator();
+            ConstTable in = (ConstTable) facts.peekIn(q);
+            if (!in.isReached() || !(opr instanceof Operator.Move || opr instanceof Operator.Binary
+                  || opr instanceof Operator.Unary || opr instanceof Operator.IntIfCmp)) {
+                continue;
+            }
+
+            // a branch the constants decide is folded below, once the
+            // walk over the quads is done with the blocks.
+            if (opr instanceof Operator.IntIfCmp) {
+                Boolean taken = taken(q, in);
+                if (taken != null && Operator.IntIfCmp.getTarget(q).getTarget()
+                                     != fallthrough[context.getQuadIndex(q)]) {
+                    branches.add(q);
+                    branchBlocks.add(qit.getCurrentBasicBlock());
+                    outcomes.add(taken);
+                    continue;
+                }
+            }
+
+            // a computation with a constant result becomes a Move of it.
+            if (q.getDefinedRegisters().size() == 1) {
+                RegisterOperand def = q.getDefinedRegisters().get(0);
+                Object c = ((ConstTable) facts.peekOut(q)).getConst(def.getRegister());
+                if (c != null && !(opr instanceof Operator.Move
+                                   && Operator.Move.getSrc(q) instanceof ConstOperand)) {
+                    qit.set(Operator.Move.create(q.getID(), moveOp(c),
+                        (RegisterOperand) def.copy(), operand(c)));
+                    folded++;
+                    continue;
+                }
+            }
+
+            // otherwise its constant operands are used directly.
+            if (opr instanceof Operator.Binary) {
+                Operator.Binary.setSrc1(q, substitute(Operator.Binary.getSrc1(q), in));
+                Operator.Binary.setSrc2(q, substitute(Operator.Binary.getSrc2(q), in));
+            } else if (opr instanceof Operator.Unary) {
+                Operator.Unary.setSrc(q, substitute(Operator.Unary.getSrc(q), in));
+            } else if (opr instanceof Operator.IntIfCmp) {
+                Operator.IntIfCmp.setSrc1(q, substitute(Operator.IntIfCmp.getSrc1(q), in));
+                Operator.IntIfCmp.setSrc2(q, substitute(Operator.IntIfCmp.getSrc2(q), in));
+            }
+        }
+
+        // a branch always taken becomes a Goto, and one never taken
+        // goes away; either way its block loses the other successor.
+        for (int i = 0; i < branches.size(); i++) {
+            Quad q = branches.get(i);
+            BasicBlock b = branchBlocks.get(i);
+            BasicBlock target = Operator.IntIfCmp.getTarget(q).getTarget();
+            BasicBlock fall = fallthrough[context.getQuadIndex(q)];
+            BasicBlock lost;
+            if (outcomes.get(i)) {
+                b.replaceQuad(b.getQuadIndex(q), Operator.Goto.create(q.getID(),
+                    Operator.Goto.GOTO.INSTANCE, new TargetOperand(target)));
+                lost = fall;
+            } else {
+                b.removeQuad(q);
+                lost = target;
+            }
+            b.removeSuccessor(lost);
+            lost.removePredecessor(b);
+        }
+        if (!branches.isEmpty()) {
+            removeUnreachable(cfg);
+        }
+
+        if (Boolean.getBoolean("flow.stats")) {
+            System.err.println(cfg.getMethod().getName() + ": " + folded
+                + " quads folded, " + branches.size() + " branches decided");
+        }
+    }
+
+    /* Cuts the blocks control can no longer reach out of the CFG: the
+     * blocks it still reaches forget them as predecessors, and so do
+     * the exception handlers as blocks they cover.  Like
+     * ControlFlowGraph.removeUnreachableBasicBlocks, without linking
+     * loops that never exit to the exit. */
+    private static void removeUnreachable(ControlFlowGraph cfg) {
+        Set<BasicBlock> reached = new HashSet<BasicBlock>(cfg.reversePostOrder(cfg.entry()));
+        for (BasicBlock b : reached) {
+            b.getPredecessors().retainAll(reached);
+        }
+        Iterator<ExceptionHandler> it = cfg.getExceptionHandlers().iterator();
+        while (it.hasNext()) {
+            ExceptionHandler eh = it.next();
+            eh.getHandledBasicBlocks().retainAll(reached);
+            if (eh.getHandledBasicBlocks().isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Sends top along the edge out of an IntIfCmp that the constants
+     * say is never taken.
+     */
+    public void refine(Quad from, BasicBlock to, Flow.DataflowObject value) {
+        if (!(from.getOperator() instanceof Operator.IntIfCmp)) return;
+        Boolean taken = taken(from, (ConstTable) value);
+        if (taken == null) return;
+        // the edge ends at the first quad, which may be further on.
+        BasicBlock target = QuadGraph.firstBlock(Operator.IntIfCmp.getTarget(from).getTarget());
+        BasicBlock fall = QuadGraph.firstBlock(fallthrough[context.getQuadIndex(from)]);
+        if (target != fall && to == (taken ? fall : target)) {
+            value.setToTop();
+        }
+    }
+
+    /* Returns whether an IntIfCmp is taken when the registers hold
+     * what val says, or null if that is not known. */
+    private static Boolean taken(Quad q, ConstTable val) {
+        Object a = val.getConst(Operator.IntIfCmp.getSrc1(q));
+        Object b = val.getConst(Operator.IntIfCmp.getSrc2(q));
+        if (a == null || b == null) return null;
+        byte cond = Operator.IntIfCmp.getCond(q).getCondition();
+        if (a instanceof Integer && b instanceof Integer) {
+            int x = (Integer) a, y = (Integer) b;
+            switch (cond) {
+            case BytecodeVisitor.CMP_EQ: return x == y;
+            case BytecodeVisitor.CMP_NE: return x != y;
+            case BytecodeVisitor.CMP_LT: return x < y;
+            case BytecodeVisitor.CMP_GE: return x >= y;
+            case BytecodeVisitor.CMP_LE: return x <= y;
+            case BytecodeVisitor.CMP_GT: return x > y;
+            default: return null;
+            }
+        }
+        if (a == NULL && b == NULL) {
+            switch (cond) {
+            case BytecodeVisitor.CMP_EQ: return true;
+            case BytecodeVisitor.CMP_NE: return false;
+            default: return null;
+            }
+        }
+        return null;
+    }
+
+    /* Returns the constant a register operand holds, if it holds one,
+     * and the operand itself otherwise. */
+    private static Operand substitute(Operand op, ConstTable in) {
+        if (op instanceof RegisterOperand) {
+            Object c = in.getConst(((RegisterOperand) op).getRegister());
+            if (c != null) return operand(c);
+        }
+        return op;
+    }
+
+    private static Operator.Move moveOp(Object c) {
+        if (c instanceof Integer) return Operator.Move.MOVE_I.INSTANCE;
+        if (c instanceof Long) return Operator.Move.MOVE_L.INSTANCE;
+        if (c instanceof Float) return Operator.Move.MOVE_F.INSTANCE;
+        if (c == NULL) return Operator.Move.MOVE_A.INSTANCE;
+        return Operator.Move.MOVE_D.INSTANCE;
+    }
+
+    private static Operand operand(Object c) {
+        if (c instanceof Integer) return new IConstOperand((Integer) c);
+        if (c instanceof Long) return new LConstOperand((Long) c);
+        if (c instanceof Float) return new FConstOperand((Float) c);
+        if (c == NULL) return new AConstOperand(null);
+        return new DConstOperand((Double) c);
+    }
+
+    /* Is this a forward dataflow analysis? */
+    public boolean isForward() { return true; }
+
+    /* Routines for interacting with dataflow values. */
+
+    public Flow.DataflowObject getEntry() {
+        Flow.DataflowObject result = newTempVar();
+        result.copy(entry);
+        return result;
+    }
+    public Flow.DataflowObject getExit() {
+        Flow.DataflowObject result = newTempVar();
+        result.copy(exit);
+        return result;
+    }
+    public Flow.DataflowObject getIn(Quad q) {
+        return facts.getIn(q);
+    }
+    public Flow.DataflowObject getOut(Quad q) {
+        return facts.getOut(q);
+    }
+    public void setIn(Quad q, Flow.DataflowObject value) {
+        facts.setIn(q, value);
+    }
+    public void setOut(Quad q, Flow.DataflowObject value) {
+        facts.setOut(q, value);
+    }
+    public void setEntry(Flow.DataflowObject value) {
+        entry.copy(value);
+    }
+    public void setExit(Flow.DataflowObject value) {
+        exit.copy(value);
+    }
+
+    public Flow.DataflowObject peekEntry() { return entry; }
+    public Flow.DataflowObject peekExit() { return exit; }
+    public Flow.DataflowObject peekIn(Quad q) { return facts.peekIn(q); }
+    public Flow.DataflowObject peekOut(Quad q) { return facts.peekOut(q); }
+
+    public Flow.DataflowObject newTempVar() { return new ConstTable(context, pool); }
+
+    /* Actually perform the transfer operation on the relevant
+     * quad. */
+
+    private TransferFunction transferfn = new TransferFunction();
+    public void processQuad(Quad q) {
+        transfer(q);
+    }
+
+    public boolean transfer(Quad q) {
+        return facts.transfer(q);
+    }
+
+    /* The QuadVisitor that actually does the computation.  Every
+     * register a quad defines is NAC unless a visit method below
+     * handles the quad, and nothing changes where nothing is
+     * reached. */
+    public static class TransferFunction extends QuadVisitor.EmptyVisitor
+        implements FactStore.Transfer
+    {
+        ConstTable val;
+        boolean handled;
+        public void apply(Quad q, Flow.DataflowObject v) {
+            val = (ConstTable) v;
+            if (!val.isReached()) return;
+            handled = false;
+            Helper.runPass(q, this);
+            if (!handled) {
+                for (RegisterOperand def : q.getDefinedRegisters()) {
+                    val.setNAC(def.getRegister());
+                }
+            }
+        }
+        @Override
+        public void visitMove(Quad q) {
+            handled = true;
+            Register key = Operator.Move.getDest(q).getRegister();
+            Operand op = Operator.Move.getSrc(q);
+            if (op instanceof RegisterOperand) {
+                val.transfer(key, ((RegisterOperand) op).getRegister());
+            } else {
+                set(key, val.getConst(op));
+            }
+        }
+        @Override
+        public void visitBinary(Quad q) {
+            handled = true;
+            Register key = Operator.Binary.getDest(q).getRegister();
+            Operand op1 = Operator.Binary.getSrc1(q), op2 = Operator.Binary.getSrc2(q);
+            if (undef(op1) || undef(op2)) {
+                val.transfer(key, undef(op1) ? reg(op1) : reg(op2));
+                return;
+            }
+            Object a = val.getConst(op1), b = val.getConst(op2);
+            set(key, (a != null && b != null) ? binary(q.getOperator(), a, b) : null);
+        }
+        @Override
+        public void visitUnary(Quad q) {
+            handled = true;
+            Register key = Operator.Unary.getDest(q).getRegister();
+            Operand op = Operator.Unary.getSrc(q);
+            if (undef(op)) {
+                val.transfer(key, reg(op));
+                return;
+            }
+            Object a = val.getConst(op);
+            set(key, (a != null) ? unary(q.getOperator(), a) : null);
+        }
+
+        /* Sets key to the constant c, or to NAC if c is null. */
+        private void set(Register key, Object c) {
+            if (c != null) val.setConst(key, c);
+            else val.setNAC(key);
+        }
+
+        private boolean undef(Operand op) {
+            return op instanceof RegisterOperand && val.isUndef(reg(op));
+        }
+
+        private static Register reg(Operand op) {
+            return ((RegisterOperand) op).getRegister();
+        }
+    }
+
+    /**
+     * Returns the result of a Binary operator on two constants, or
+     * null if it cannot be folded.
+     */
+    public static Object binary(Operator opr, Object a, Object b) {
+        if (a instanceof Integer && b instanceof Integer) {
+            int x = (Integer) a, y = (Integer) b;
+            if (opr == Operator.Binary.ADD_I.INSTANCE) return x + y;
+            if (opr == Operator.Binary.SUB_I.INSTANCE) return x - y;
+            if (opr == Operator.Binary.MUL_I.INSTANCE) return x * y;
+            if (opr == Operator.Binary.DIV_I.INSTANCE) return (y == 0) ? null : (Object) (x / y);
+            if (opr == Operator.Binary.REM_I.INSTANCE) return (y == 0) ? null : (Object) (x % y);
+            if (opr == Operator.Binary.AND_I.INSTANCE) return x & y;
+            if (opr == Operator.Binary.OR_I.INSTANCE) return x | y;
+            if (opr == Operator.Binary.XOR_I.INSTANCE) return x ^ y;
+            if (opr == Operator.Binary.SHL_I.INSTANCE) return x << y;
+            if (opr == Operator.Binary.SHR_I.INSTANCE) return x >> y;
+            if (opr == Operator.Binary.USHR_I.INSTANCE) return x >>> y;
+        } else if (a instanceof Long && b instanceof Integer) {
+            long x = (Long) a;
+            int y = (Integer) b;
+            if (opr == Operator.Binary.SHL_L.INSTANCE) return x << y;
+            if (opr == Operator.Binary.SHR_L.INSTANCE) return x >> y;
+            if (opr == Operator.Binary.USHR_L.INSTANCE) return x >>> y;
+        } else if (a instanceof Long && b instanceof Long) {
+            long x = (Long) a, y = (Long) b;
+            if (opr == Operator.Binary.ADD_L.INSTANCE) return x + y;
+            if (opr == Operator.Binary.SUB_L.INSTANCE) return x - y;
+            if (opr == Operator.Binary.MUL_L.INSTANCE) return x * y;
+            if (opr == Operator.Binary.DIV_L.INSTANCE) return (y == 0) ? null : (Object) (x / y);
+            if (opr == Operator.Binary.REM_L.INSTANCE) return (y == 0) ? null : (Object) (x % y);
+            if (opr == Operator.Binary.AND_L.INSTANCE) return x & y;
+            if (opr == Operator.Binary.OR_L.INSTANCE) return x | y;
+            if (opr == Operator.Binary.XOR_L.INSTANCE) return x ^ y;
+            if (opr == Operator.Binary.CMP_L.INSTANCE) return (x < y) ? -1 : (x == y) ? 0 : 1;
+        } else if (a instanceof Float && b instanceof Float) {
+            float x = (Float) a, y = (Float) b;
+            if (opr == Operator.Binary.ADD_F.INSTANCE) return x + y;
+            if (opr == Operator.Binary.SUB_F.INSTANCE) return x - y;
+            if (opr == Operator.Binary.MUL_F.INSTANCE) return x * y;
+            if (opr == Operator.Binary.DIV_F.INSTANCE) return x / y;
+            if (opr == Operator.Binary.REM_F.INSTANCE) return x % y;
+            if (Float.isNaN(x) || Float.isNaN(y)) return null;
+            if (opr == Operator.Binary.CMP_FL.INSTANCE
+                || opr == Operator.Binary.CMP_FG.INSTANCE) return (x < y) ? -1 : (x == y) ? 0 : 1;
+        } else if (a instanceof Double && b instanceof Double) {
+            double x = (Double) a, y = (Double) b;
+            if (opr == Operator.Binary.ADD_D.INSTANCE) return x + y;
+            if (opr == Operator.Binary.SUB_D.INSTANCE) return x - y;
+            if (opr == Operator.Binary.MUL_D.INSTANCE) return x * y;
+            if (opr == Operator.Binary.DIV_D.INSTANCE) return x / y;
+            if (opr == Operator.Binary.REM_D.INSTANCE) return x % y;
+            if (Double.isNaN(x) || Double.isNaN(y)) return null;
+            if (opr == Operator.Binary.CMP_DL.INSTANCE
+                || opr == Operator.Binary.CMP_DG.INSTANCE) return (x < y) ? -1 : (x == y) ? 0 : 1;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the result of a Unary operator on a constant, or null if
+     * it cannot be folded.
+     */
+    public static Object unary(Operator opr, Object a) {
+        if (a instanceof Integer) {
+            int x = (Integer) a;
+            if (opr == Operator.Unary.NEG_I.INSTANCE) return -x;
+            if (opr == Operator.Unary.INT_2LONG.INSTANCE) return (long) x;
+            if (opr == Operator.Unary.INT_2FLOAT.INSTANCE) return (float) x;
+            if (opr == Operator.Unary.INT_2DOUBLE.INSTANCE) return (double) x;
+            if (opr == Operator.Unary.INT_2BYTE.INSTANCE) return (int) (byte) x;
+            if (opr == Operator.Unary.INT_2CHAR.INSTANCE) return (int) (char) x;
+            if (opr == Operator.Unary.INT_2SHORT.INSTANCE) return (int) (short) x;
+        } else if (a instanceof Long) {
+            long x = (Long) a;
+            if (opr == Operator.Unary.NEG_L.INSTANCE) return -x;
+            if (opr == Operator.Unary.LONG_2INT.INSTANCE) return (int) x;
+            if (opr == Operator.Unary.LONG_2FLOAT.INSTANCE) return (float) x;
+            if (opr == Operator.Unary.LONG_2DOUBLE.INSTANCE) return (double) x;
+        } else if (a instanceof Float) {
+            float x = (Float) a;
+            if (opr == Operator.Unary.NEG_F.INSTANCE) return -x;
+            if (opr == Operator.Unary.FLOAT_2INT.INSTANCE) return (int) x;
+            if (opr == Operator.Unary.FLOAT_2LONG.INSTANCE) return (long) x;
+            if (opr == Operator.Unary.FLOAT_2DOUBLE.INSTANCE) return (double) x;
+        } else if (a instanceof Double) {
+            double x = (Double) a;
+            if (opr == Operator.Unary.NEG_D.INSTANCE) return -x;
+            if (opr == Operator.Unary.DOUBLE_2INT.INSTANCE) return (int) x;
+            if (opr == Operator.Unary.DOUBLE_2LONG.INSTANCE) return (long) x;
+            if (opr == Operator.Unary.DOUBLE_2FLOAT.INSTANCE) return (float) x;
+        }
+        return null;
+    }
+}
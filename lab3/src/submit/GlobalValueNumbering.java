@@ -0,0 +1,243 @@
+package submit;
+
+import java.util.*;
+import joeq.Compiler.Quad.*;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+import joeq.Compiler.Quad.RegisterFactory.Register;
+import flow.QuadGraph;
+
+/**
+ * Global value numbering over the dominator tree, on top of
+ * ReachingDefs.
+ *
+ * Each quad that defines a register gets a value number for what it
+ * puts there.  A Move passes its source's number on, and two Binary,
+ * Unary or ALength quads get the same number if they apply the same
+ * operator to operands with the same numbers, in either order for the
+ * commutative ones.  A Getfield gets the number of a Getfield of the
+ * same field from the same object that dominates it, if nothing on the
+ * way from one to the other may write the field; ALength needs no such
+ * check, since the length of an array never changes.  Anything else
+ * gets a number of its own.
+ *
+ * The registers are not in SSA form, so the number of an operand is
+ * only that of its definition if that is the only definition reaching
+ * it and it dominates it; a register no definition reaches holds its
+ * value from the entry.  With that, a quad whose number some quad
+ * dominating it already computed into a register that still holds it
+ * is redundant, and becomes a Move from that register, which
+ * CopyPropagation and Liveness then remove.
+ *
+ * Run with -Dflow.stats=true to print the quads removed per method.
+ */
+public class GlobalValueNumbering extends ReachingDefs {
+
+    private QuadGraph g;
+    private Dominators dom;
+    /* By graph node: the value number of the register it defines, or
+     * -1 before it is numbered or if it defines none. */
+    private int[] value;
+    private int numbers;
+    private final Map<String, Integer> expressions = new HashMap<String, Integer>();
+    private final Map<Register, Integer> entryValues = new HashMap<Register, Integer>();
+
+    /* The quads in the current path of the dominator tree defining
+     * each value number, and doing each Getfield, with what to take
+     * off the lists when the walk leaves a quad's subtree. */
+    private final Map<Integer, List<Integer>> holders = new HashMap<Integer, List<Integer>>();
+    private final Map<String, List<Integer>> loads = new HashMap<String, List<Integer>>();
+    private final List<Integer> scopeOwners = new ArrayList<Integer>();
+    private final List<List<Integer>> scopeLists = new ArrayList<List<Integer>>();
+
+    public void postprocess(ControlFlowGraph cfg) {
+        g = new QuadGraph(cfg, true);
+        dom = new Dominators(g);
+        value = new int[g.size()];
+        Arrays.fill(value, -1);
+        numbers = 0;
+        expressions.clear();
+        entryValues.clear();
+        holders.clear();
+        loads.clear();
+        scopeOwners.clear();
+        scopeLists.clear();
+
+        // the redundant quads, by node, with the register holding
+        // their value.
+        Map<Integer, Register> redundant = new LinkedHashMap<Integer, Register>();
+        for (int n : dom.preorder()) {
+            while (!scopeOwners.isEmpty()
+                   && !dom.dominates(scopeOwners.get(scopeOwners.size() - 1), n)) {
+                List<Integer> list = scopeLists.remove(scopeLists.size() - 1);
+                list.remove(list.size() - 1);
+                scopeOwners.remove(scopeOwners.size() - 1);
+            }
+            Register from = number(n);
+            if (from != null) redundant.put(n, from);
+        }
+
+        for (Map.Entry<Integer, Register> e : redundant.entrySet()) {
+            Quad q = g.getQuad(e.getKey());
+            BasicBlock b = g.getBlock(e.getKey());
+            RegisterOperand def = q.getDefinedRegisters().get(0);
+            b.replaceQuad(b.getQuadIndex(q), Operator.Move.create(q.getID(),
+                Operator.Move.getMoveOp(def.getType()), (RegisterOperand) def.copy(),
+                new RegisterOperand(e.getValue(), def.getType())));
+        }
+
+        if (Boolean.getBoolean("flow.stats")) {
+            System.err.println(cfg.getMethod().getName() + ": "
+                + redundant.size() + " redundant quads removed");
+        }
+        g = null;
+        dom = null;
+    }
+
+    /* Numbers the value quad n defines, and returns the register that
+     * already holds it if n is redundant. */
+    private Register number(int n) {
+        Quad q = g.getQuad(n);
+        if (q.getDefinedRegisters().size() != 1) return null;
+        DefSet in = (DefSet) facts.peekIn(q);
+        Operator opr = q.getOperator();
+        boolean computes = true;
+        if (opr instanceof Operator.Move) {
+            value[n] = numberOf(Operator.Move.getSrc(q), n, in);
+            computes = false;
+        } else if (opr instanceof Operator.Binary) {
+            int a = numberOf(Operator.Binary.getSrc1(q), n, in);
+            int b = numberOf(Operator.Binary.getSrc2(q), n, in);
+            if (isCommutative(opr) && b < a) {
+                int t = a; a = b; b = t;
+            }
+            value[n] = numberOf(opr + " " + a + " " + b);
+        } else if (opr instanceof Operator.Unary) {
+            value[n] = numberOf(opr + " " + numberOf(Operator.Unary.getSrc(q), n, in));
+        } else if (opr instanceof Operator.ALength) {
+            value[n] = numberOf(opr + " " + numberOf(Operator.ALength.getSrc(q), n, in));
+        } else if (opr instanceof Operator.Getfield) {
+            String field = Operator.Getfield.getField(q).toString();
+            String key = opr + " " + numberOf(Operator.Getfield.getBase(q), n, in) + " " + field;
+            List<Integer> same = loads.get(key);
+            if (same == null) {
+                same = new ArrayList<Integer>();
+                loads.put(key, same);
+            }
+            for (int k = same.size() - 1; k >= 0 && value[n] < 0; k--) {
+                if (!mayWriteBetween(same.get(k), n, field)) value[n] = value[same.get(k)];
+            }
+            if (value[n] < 0) value[n] = numbers++;
+            enter(n, same);
+        } else {
+            value[n] = numbers++;
+            computes = false;
+        }
+
+        List<Integer> same = holders.get(value[n]);
+        if (same == null) {
+            same = new ArrayList<Integer>();
+            holders.put(value[n], same);
+        }
+        Register from = null;
+        if (computes) {
+            for (int k = same.size() - 1; k >= 0 && from == null; k--) {
+                from = holding(same.get(k), in);
+            }
+        }
+        enter(n, same);
+        return from;
+    }
+
+    /* Adds node n to a list until the walk leaves n's subtree. */
+    private void enter(int n, List<Integer> list) {
+        list.add(n);
+        scopeOwners.add(n);
+        scopeLists.add(list);
+    }
+
+    /* Returns the value number of an operand of the quad at node n. */
+    private int numberOf(Operand op, int n, DefSet in) {
+        if (!(op instanceof RegisterOperand)) {
+            return numberOf("const " + op);
+        }
+        Register r = ((RegisterOperand) op).getRegister();
+        List<Quad> defs = in.defsOf(r);
+        if (defs.isEmpty()) {
+            Integer v = entryValues.get(r);
+            if (v == null) {
+                v = numbers++;
+                entryValues.put(r, v);
+            }
+            return v;
+        }
+        if (defs.size() == 1) {
+            int d = g.indexOf(defs.get(0));
+            if (d != n && value[d] >= 0 && dom.dominates(d, n)) return value[d];
+        }
+        return numbers++;
+    }
+
+    private int numberOf(String key) {
+        Integer v = expressions.get(key);
+        if (v == null) {
+            v = numbers++;
+            expressions.put(key, v);
+        }
+        return v;
+    }
+
+    /* Returns the register quad h defined if h's value is still in it
+     * at the point with the given reaching definitions, or null.  A
+     * quad that may throw to a handler of its method does not count,
+     * since the handler is reached without the register written. */
+    private Register holding(int h, DefSet in) {
+        Quad q = g.getQuad(h);
+        if (!q.getThrownExceptions().isEmpty()
+            && !g.getBlock(h).getExceptionHandlers().isEmpty()) {
+            return null;
+        }
+        Register r = q.getDefinedRegisters().get(0).getRegister();
+        List<Quad> defs = in.defsOf(r);
+        return (defs.size() == 1 && defs.get(0) == q) ? r : null;
+    }
+
+    /* Returns whether a quad on some path from node h to node n, which
+     * h dominates, may write the given field. */
+    private boolean mayWriteBetween(int h, int n, String field) {
+        boolean[] seen = new boolean[g.size()];
+        int[] stack = new int[g.size()];
+        int sp = 0;
+        seen[h] = true;
+        stack[sp++] = n;
+        while (sp > 0) {
+            int v = stack[--sp];
+            for (int k = g.predBegin(v); k < g.predEnd(v); k++) {
+                int p = g.pred(k);
+                if (seen[p]) continue;
+                seen[p] = true;
+                if (mayWrite(g.getQuad(p), field)) return true;
+                stack[sp++] = p;
+            }
+        }
+        return false;
+    }
+
+    private static boolean mayWrite(Quad q, String field) {
+        Operator opr = q.getOperator();
+        if (opr instanceof Operator.Putfield) {
+            return Operator.Putfield.getField(q).toString().equals(field);
+        }
+        return opr instanceof Operator.Invoke || opr instanceof Operator.Monitor
+            || opr instanceof Operator.MemStore || opr instanceof Operator.Special;
+    }
+
+    private static boolean isCommutative(Operator opr) {
+        return opr instanceof Operator.Binary.ADD_I || opr instanceof Operator.Binary.ADD_L
+            || opr instanceof Operator.Binary.ADD_F || opr instanceof Operator.Binary.ADD_D
+            || opr instanceof Operator.Binary.MUL_I || opr instanceof Operator.Binary.MUL_L
+            || opr instanceof Operator.Binary.MUL_F || opr instanceof Operator.Binary.MUL_D
+            || opr instanceof Operator.Binary.AND_I || opr instanceof Operator.Binary.AND_L
+            || opr instanceof Operator.Binary.OR_I || opr instanceof Operator.Binary.OR_L
+            || opr instanceof Operator.Binary.XOR_I || opr instanceof Operator.Binary.XOR_L;
+    }
+}
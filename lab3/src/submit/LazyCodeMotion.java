@@ -0,0 +1,475 @@
+package submit;
+
+import java.util.*;
+import joeq.Compiler.Quad.*;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+import joeq.Compiler.Quad.Operand.TargetOperand;
+import joeq.Compiler.Quad.RegisterFactory.Register;
+import flow.AnalysisContext;
+import flow.BitVector;
+import flow.FactStore;
+import flow.Flow;
+import flow.QuadGraph;
+
+/**
+ * Partial redundancy elimination by lazy code motion, as in section
+ * 9.5 of the Dragon book, with each quad as a block of its own.
+ *
+ * The expressions moved are the Binary and Unary ones that cannot
+ * throw, numbered as in AvailableExpressions.  Four analyses place
+ * them: anticipated expressions (backward, must) say where computing
+ * one early is safe, available expressions (forward, must, counting
+ * the anticipated ones as computed) where it is no longer needed, and
+ * from these the earliest points follow; postponable expressions
+ * (forward, must) push those down as far as they go without leaving a
+ * path without a computation, to the latest points; and used
+ * expressions (backward, may) drop the latest points whose value is
+ * only needed by the quad there.  The first three are solved with a
+ * WorklistSolver from preprocess, and this analysis is the fourth.
+ *
+ * An expression then gets a new register, computed at each latest
+ * point whose value is used later, and every quad computing it reads
+ * the register instead, unless it is the only use of its own latest
+ * point.  So no path computes an expression more often than before,
+ * and the Moves left behind are for CopyPropagation and Liveness.
+ *
+ * To place computations on the edges into a join, preprocess puts a
+ * block holding just a Goto to the join on every such edge;
+ * postprocess removes the Gotos, and the blocks nothing was placed in.
+ *
+ * Run with -Dflow.stats=true to print, per method, the computations
+ * placed and the ones that became Moves.
+ */
+public class LazyCodeMotion implements Flow.InPlaceAnalysis {
+
+    /**
+     * A set of expressions: a must set starts full and meets by
+     * intersection, and a may set starts empty and meets by union.
+     */
+    public static class ExprBits implements Flow.VersionedObject {
+        private final BitVector set;
+        private final boolean must;
+
+        public ExprBits(int size, boolean must) {
+            this.must = must;
+            set = new BitVector(size);
+            setToTop();
+        }
+
+        public void setToTop() {
+            if (must) set.setAll(); else set.clearAll();
+        }
+        public void setToBottom() {
+            if (must) set.clearAll(); else set.setAll();
+        }
+
+        public void meetWith(Flow.DataflowObject o) {
+            if (must) set.and(((ExprBits) o).set); else set.or(((ExprBits) o).set);
+        }
+
+        public void copy(Flow.DataflowObject o) {
+            set.copy(((ExprBits) o).set);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof ExprBits) {
+                return set.equals(((ExprBits) o).set);
+            }
+            return false;
+        }
+        @Override
+        public int hashCode() {
+            return set.hashCode();
+        }
+        public long getVersion() {
+            return set.getVersion();
+        }
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("[");
+            for (int e = set.nextSetBit(0); e >= 0; e = set.nextSetBit(e + 1)) {
+                if (sb.length() > 1) sb.append(", ");
+                sb.append(e);
+            }
+            return sb.append(']').toString();
+        }
+
+        public BitVector bits() { return set; }
+    }
+
+    /* One of the analyses the latest points come from, given by its
+     * direction and transfer function; the value at the boundary is
+     * always empty. */
+    private abstract class Stage implements Flow.InPlaceAnalysis, FactStore.Transfer {
+        private final boolean forward, must;
+        private FactStore stageFacts;
+        private ExprBits stageEntry, stageExit;
+
+        Stage(boolean forward, boolean must) {
+            this.forward = forward;
+            this.must = must;
+        }
+
+        public void preprocess(ControlFlowGraph cfg) {
+            stageEntry = new ExprBits(exprs.size(), must);
+            stageExit = new ExprBits(exprs.size(), must);
+            stageEntry.bits().clearAll();
+            stageExit.bits().clearAll();
+            stageFacts = new FactStore(context, this, this);
+        }
+        public void postprocess(ControlFlowGraph cfg) { }
+        public boolean isForward() { return forward; }
+
+        public Flow.DataflowObject getEntry() {
+            Flow.DataflowObject result = newTempVar();
+            result.copy(stageEntry);
+            return result;
+        }
+        public Flow.DataflowObject getExit() {
+            Flow.DataflowObject result = newTempVar();
+            result.copy(stageExit);
+            return result;
+        }
+        public Flow.DataflowObject getIn(Quad q) { return stageFacts.getIn(q); }
+        public Flow.DataflowObject getOut(Quad q) { return stageFacts.getOut(q); }
+        public void setIn(Quad q, Flow.DataflowObject value) { stageFacts.setIn(q, value); }
+        public void setOut(Quad q, Flow.DataflowObject value) { stageFacts.setOut(q, value); }
+        public void setEntry(Flow.DataflowObject value) { stageEntry.copy(value); }
+        public void setExit(Flow.DataflowObject value) { stageExit.copy(value); }
+
+        public Flow.DataflowObject peekEntry() { return stageEntry; }
+        public Flow.DataflowObject peekExit() { return stageExit; }
+        public Flow.DataflowObject peekIn(Quad q) { return stageFacts.peekIn(q); }
+        public Flow.DataflowObject peekOut(Quad q) { return stageFacts.peekOut(q); }
+
+        public Flow.DataflowObject newTempVar() { return new ExprBits(exprs.size(), must); }
+
+        public void processQuad(Quad q) { transfer(q); }
+        public boolean transfer(Quad q) { return stageFacts.transfer(q); }
+
+        public void apply(Quad q, Flow.DataflowObject v) {
+            transfer(q, ((ExprBits) v).bits());
+        }
+
+        /* Turns the value on one side of q into the value on the
+         * other, in the analysis's direction. */
+        abstract void transfer(Quad q, BitVector val);
+
+        /* Returns the value before q in program order. */
+        BitVector before(Quad q) { return ((ExprBits) stageFacts.peekIn(q)).bits(); }
+    }
+
+    private FactStore facts;
+    private ExprBits entry, exit;
+    private AnalysisContext context;
+    private AvailableExpressions.Expressions exprs;
+    /* By quad index: the movable expression a quad computes, or -1. */
+    private int[] use;
+    /* By quad index: the latest points. */
+    private BitVector[] latest;
+    /* The blocks on the edges into joins. */
+    private List<BasicBlock> placeholders;
+
+    public void preprocess(ControlFlowGraph cfg) {
+        placeholders = splitJoinEdges(cfg);
+        context = new AnalysisContext(cfg);
+        exprs = new AvailableExpressions.Expressions(context);
+        use = new int[context.getNumQuads()];
+        for (int i = 0; i < use.length; i++) {
+            int e = exprs.numberOf(context.getQuad(i));
+            use[i] = (e >= 0 && isMovable(exprs.get(e))) ? e : -1;
+        }
+
+        final Stage anticipated = new Stage(false, true) {
+            void transfer(Quad q, BitVector val) {
+                kill(q, val);
+                gen(q, val);
+            }
+        };
+        solve(anticipated, cfg);
+
+        final Stage available = new Stage(true, true) {
+            void transfer(Quad q, BitVector val) {
+                val.or(anticipated.before(q));
+                kill(q, val);
+            }
+        };
+        solve(available, cfg);
+
+        Stage postponable = new Stage(true, true) {
+            void transfer(Quad q, BitVector val) {
+                val.or(earliest(q, anticipated, available));
+                int e = use[context.getQuadIndex(q)];
+                if (e >= 0) val.clear(e);
+            }
+        };
+        solve(postponable, cfg);
+
+        // latest[q] = (earliest[q] + postponable.in[q])
+        //   * (use[q] + !(product over successors s of
+        //                 (earliest[s] + postponable.in[s])))
+        QuadGraph g = new QuadGraph(cfg, true);
+        BitVector[] placeable = new BitVector[g.size()];
+        for (int n = 0; n < g.size(); n++) {
+            placeable[n] = earliest(g.getQuad(n), anticipated, available);
+            placeable[n].or(postponable.before(g.getQuad(n)));
+        }
+        latest = new BitVector[context.getNumQuads()];
+        for (int n = 0; n < g.size(); n++) {
+            BitVector later = new BitVector(exprs.size());
+            if (!g.toEnd(n)) {
+                later.setAll();
+                for (int k = g.succBegin(n); k < g.succEnd(n); k++) {
+                    later.and(placeable[g.succ(k)]);
+                }
+            }
+            int i = context.getQuadIndex(g.getQuad(n));
+            if (use[i] >= 0) later.clear(use[i]);
+            latest[i] = new BitVector(exprs.size());
+            latest[i].copy(placeable[n]);
+            latest[i].andNot(later);
+        }
+
+        entry = new ExprBits(exprs.size(), false);
+        exit = new ExprBits(exprs.size(), false);
+        facts = new FactStore(context, this, transferfn);
+    }
+
+    private void solve(Stage stage, ControlFlowGraph cfg) {
+        Flow.Solver solver = new WorklistSolver();
+        solver.registerAnalysis(stage);
+        solver.visitCFG(cfg);
+    }
+
+    /* earliest[q] = anticipated.in[q] - available.in[q] */
+    private BitVector earliest(Quad q, Stage anticipated, Stage available) {
+        BitVector e = new BitVector(exprs.size());
+        e.copy(anticipated.before(q));
+        e.andNot(available.before(q));
+        return e;
+    }
+
+    /* Kills the expressions reading a register q defines. */
+    private void kill(Quad q, BitVector val) {
+        for (RegisterOperand def : q.getDefinedRegisters()) {
+            val.andNot(exprs.mentioning(def.getRegister()));
+        }
+    }
+
+    private void gen(Quad q, BitVector val) {
+        int e = use[context.getQuadIndex(q)];
+        if (e >= 0) val.set(e);
+    }
+
+    /* Arithmetic that cannot throw, and so can run where the program
+     * did not run it; a division or remainder may follow a ZeroCheck
+     * it must not be moved above. */
+    private static boolean isMovable(Quad q) {
+        Operator opr = q.getOperator();
+        if (!(opr instanceof Operator.Binary) && !(opr instanceof Operator.Unary)) return false;
+        if (opr instanceof Operator.Binary.DIV_I || opr instanceof Operator.Binary.DIV_L
+            || opr instanceof Operator.Binary.REM_I || opr instanceof Operator.Binary.REM_L) {
+            return false;
+        }
+        return q.getThrownExceptions().isEmpty();
+    }
+
+    /**
+     * Places the computations at the latest points whose value is used
+     * after them, and has every other computation read it.
+     */
+    public void postprocess(ControlFlowGraph cfg) {
+        Map<Quad, BitVector> insert = new LinkedHashMap<Quad, BitVector>();
+        Map<Quad, BasicBlock> blockOf = new HashMap<Quad, BasicBlock>();
+        List<Quad> replace = new ArrayList<Quad>();
+        QuadIterator qit = new QuadIterator(cfg);
+        while (qit.hasNext()) {
+            Quad q = qit.next();
+            int i = context.getQuadIndex(q);
+            BitVector usedOut = ((ExprBits) facts.peekOut(q)).bits();
+            BitVector here = new BitVector(exprs.size());
+            here.copy(latest[i]);
+            here.and(usedOut);
+            if (here.nextSetBit(0) >= 0) {
+                insert.put(q, here);
+                blockOf.put(q, qit.getCurrentBasicBlock());
+            }
+            if (use[i] >= 0 && !(latest[i].get(use[i]) && !usedOut.get(use[i]))) {
+                replace.add(q);
+                blockOf.put(q, qit.getCurrentBasicBlock());
+            }
+        }
+
+        Register[] temp = new Register[exprs.size()];
+        int placed = 0;
+        for (Map.Entry<Quad, BitVector> p : insert.entrySet()) {
+            BasicBlock b = blockOf.get(p.getKey());
+            int at = b.getQuadIndex(p.getKey());
+            BitVector here = p.getValue();
+            for (int e = here.nextSetBit(0); e >= 0; e = here.nextSetBit(e + 1)) {
+                Quad c = exprs.get(e).copy(cfg.getNewQuadID());
+                RegisterOperand def = (RegisterOperand) c.getDefinedRegisters().get(0).copy();
+                def.setRegister(temp(cfg, temp, e));
+                if (c.getOperator() instanceof Operator.Binary) {
+                    Operator.Binary.setDest(c, def);
+                } else {
+                    Operator.Unary.setDest(c, def);
+                }
+                b.addQuad(at++, c);
+                placed++;
+            }
+        }
+        for (Quad q : replace) {
+            BasicBlock b = blockOf.get(q);
+            RegisterOperand def = q.getDefinedRegisters().get(0);
+            Register t = temp(cfg, temp, use[context.getQuadIndex(q)]);
+            b.replaceQuad(b.getQuadIndex(q), Operator.Move.create(q.getID(),
+                Operator.Move.getMoveOp(def.getType()), (RegisterOperand) def.copy(),
+                new RegisterOperand(t, def.getType())));
+        }
+        removePlaceholders();
+
+        if (Boolean.getBoolean("flow.stats")) {
+            System.err.println(cfg.getMethod().getName() + ": " + placed
+                + " computations placed, " + replace.size() + " replaced by moves");
+        }
+    }
+
+    private Register temp(ControlFlowGraph cfg, Register[] temp, int e) {
+        if (temp[e] == null) {
+            Register r = exprs.get(e).getDefinedRegisters().get(0).getRegister();
+            temp[e] = cfg.getRegisterFactory().makeTempReg(r.getType());
+        }
+        return temp[e];
+    }
+
+    /* Puts a block holding a Goto on every edge into a block with more
+     * than one predecessor, and returns those blocks.  Edges from a
+     * block ending in something other than a Goto or an IntIfCmp, or
+     * whose branch also falls through to the join, are left alone, as
+     * are exception handlers, which are not entered by an edge. */
+    private static List<BasicBlock> splitJoinEdges(ControlFlowGraph cfg) {
+        List<BasicBlock> added = new ArrayList<BasicBlock>();
+        for (BasicBlock b : new ArrayList<BasicBlock>(cfg.reversePostOrder(cfg.entry()))) {
+            if (b.isExit() || b.isExceptionHandlerEntry() || b.getNumberOfPredecessors() < 2) {
+                continue;
+            }
+            for (BasicBlock p : new ArrayList<BasicBlock>(b.getPredecessors())) {
+                List<BasicBlock> succs = p.getSuccessors();
+                if (succs.indexOf(b) != succs.lastIndexOf(b)) continue;
+                Quad last = p.size() > 0 ? p.getLastQuad() : null;
+                TargetOperand target = null;
+                if (last != null && last.getOperator() instanceof Operator.Goto) {
+                    target = Operator.Goto.getTarget(last);
+                } else if (last != null && last.getOperator() instanceof Operator.IntIfCmp) {
+                    target = Operator.IntIfCmp.getTarget(last);
+                } else if (last != null && last.getOperator() instanceof Operator.Branch) {
+                    continue;
+                }
+                BasicBlock n = cfg.createBasicBlock(1, 1, 1, null);
+                n.appendQuad(Operator.Goto.create(cfg.getNewQuadID(),
+                    Operator.Goto.GOTO.INSTANCE, new TargetOperand(b)));
+                n.addPredecessor(p);
+                n.addSuccessor(b);
+                succs.set(succs.indexOf(b), n);
+                b.getPredecessors().set(b.getPredecessors().indexOf(p), n);
+                if (target != null && target.getTarget() == b) target.setTarget(n);
+                added.add(n);
+            }
+        }
+        return added;
+    }
+
+    /* Takes the Gotos out of the blocks splitJoinEdges added, which
+     * fall through to the join as well, and the blocks left empty out
+     * of the CFG. */
+    private void removePlaceholders() {
+        for (BasicBlock n : placeholders) {
+            n.removeQuad(n.size() - 1);
+            if (n.size() > 0) continue;
+            BasicBlock p = n.getPredecessors().get(0), b = n.getSuccessors().get(0);
+            List<BasicBlock> succs = p.getSuccessors();
+            succs.set(succs.indexOf(n), b);
+            b.getPredecessors().set(b.getPredecessors().indexOf(n), p);
+            Quad last = p.size() > 0 ? p.getLastQuad() : null;
+            TargetOperand target = null;
+            if (last != null && last.getOperator() instanceof Operator.Goto) {
+                target = Operator.Goto.getTarget(last);
+            } else if (last != null && last.getOperator() instanceof Operator.IntIfCmp) {
+                target = Operator.IntIfCmp.getTarget(last);
+            }
+            if (target != null && target.getTarget() == n) target.setTarget(b);
+        }
+    }
+
+    /* Is this a forward dataflow analysis? */
+    public boolean isForward() { return false; }
+
+    /* Routines for interacting with dataflow values. */
+
+    public Flow.DataflowObject getEntry() {
+        Flow.DataflowObject result = newTempVar();
+        result.copy(entry);
+        return result;
+    }
+    public Flow.DataflowObject getExit() {
+        Flow.DataflowObject result = newTempVar();
+        result.copy(exit);
+        return result;
+    }
+    public Flow.DataflowObject getIn(Quad q) {
+        return facts.getIn(q);
+    }
+    public Flow.DataflowObject getOut(Quad q) {
+        return facts.getOut(q);
+    }
+    public void setIn(Quad q, Flow.DataflowObject value) {
+        facts.setIn(q, value);
+    }
+    public void setOut(Quad q, Flow.DataflowObject value) {
+        facts.setOut(q, value);
+    }
+    public void setEntry(Flow.DataflowObject value) {
+        entry.copy(value);
+    }
+    public void setExit(Flow.DataflowObject value) {
+        exit.copy(value);
+    }
+
+    public Flow.DataflowObject peekEntry() { return entry; }
+    public Flow.DataflowObject peekExit() { return exit; }
+    public Flow.DataflowObject peekIn(Quad q) { return facts.peekIn(q); }
+    public Flow.DataflowObject peekOut(Quad q) { return facts.peekOut(q); }
+
+    public Flow.DataflowObject newTempVar() { return new ExprBits(exprs.size(), false); }
+
+    /* Actually perform the transfer operation on the relevant
+     * quad. */
+
+    private TransferFunction transferfn = new TransferFunction();
+    public void processQuad(Quad q) {
+        transfer(q);
+    }
+
+    public boolean transfer(Quad q) {
+        return facts.transfer(q);
+    }
+
+    /* The QuadVisitor that actually does the computation: an
+     * expression is used before q if q computes it, or it is used
+     * after q and q is not a latest point for it. */
+    public class TransferFunction extends QuadVisitor.EmptyVisitor implements FactStore.Transfer {
+        BitVector val;
+        public void apply(Quad q, Flow.DataflowObject v) {
+            val = ((ExprBits) v).bits();
+            visitQuad(q);
+        }
+        @Override
+        public void visitQuad(Quad q) {
+            int i = context.getQuadIndex(q);
+            if (use[i] >= 0) val.set(use[i]);
+            val.andNot(latest[i]);
+        }
+    }
+}
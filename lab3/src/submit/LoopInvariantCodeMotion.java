@@ -0,0 +1,164 @@
+package submit;
+
+import java.util.*;
+import joeq.Compiler.Quad.*;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+import joeq.Compiler.Quad.RegisterFactory.Register;
+import flow.QuadGraph;
+
+/**
+ * Loop-invariant code motion, on top of ReachingDefs.
+ *
+ * A quad in a loop is invariant if each of its operands is a constant,
+ * is only defined outside the loop on the paths to it, or is defined
+ * only by one quad of the loop that is itself invariant, dominates it
+ * and is moved.  The quads moved are the Moves and the Binary and
+ * Unary quads that cannot throw, so running one where the program
+ * might not have does no harm, as long as it dominates every read of
+ * the register it writes that may see it, and those reads see nothing
+ * else.  Reaching definitions do not count a register's value on
+ * entry to the method as a definition, so a read the quad does not
+ * dominate, such as one after a loop that may not run, could still
+ * see that value.  Such a quad moves into the loop's preheader and
+ * writes a new register, which those reads then read instead, so it
+ * does not matter what else the loop keeps in the old one; javac
+ * reuses its stack registers for every expression.
+ *
+ * The loops are visited outermost first, so a quad goes as far out as
+ * it can.  Run with -Dflow.stats=true to print the quads moved per
+ * method.
+ */
+public class LoopInvariantCodeMotion extends ReachingDefs {
+
+    private QuadGraph g;
+    private Dominators dom;
+    /* By graph node: the definitions reaching each register the quad
+     * reads, found before anything moves. */
+    private List<Map<Register, List<Quad>>> reaching;
+    /* By graph node: whether the quad has been moved out. */
+    private boolean[] moved;
+
+    public void postprocess(ControlFlowGraph cfg) {
+        g = new QuadGraph(cfg, true);
+        dom = new Dominators(g);
+        Loops loops = new Loops(dom);
+        reaching = new ArrayList<Map<Register, List<Quad>>>();
+        for (int n = 0; n < g.size(); n++) {
+            DefSet in = (DefSet) facts.peekIn(g.getQuad(n));
+            Map<Register, List<Quad>> defs = new HashMap<Register, List<Quad>>();
+            for (RegisterOperand use : g.getQuad(n).getUsedRegisters()) {
+                defs.put(use.getRegister(), in.defsOf(use.getRegister()));
+            }
+            reaching.add(defs);
+        }
+        moved = new boolean[g.size()];
+
+        int count = 0;
+        for (Loops.Loop loop : loops.getLoops()) {
+            List<Integer> invariant = findInvariant(loop);
+            if (invariant.isEmpty()) continue;
+            BasicBlock pre = Loops.insertPreheader(cfg, g, loop);
+            if (pre == null) continue;
+            for (int n : invariant) {
+                Quad q = g.getQuad(n);
+                rename(cfg, n);
+                g.getBlock(n).removeQuad(q);
+                pre.appendQuad(q);
+                moved[n] = true;
+                count++;
+            }
+        }
+
+        if (Boolean.getBoolean("flow.stats")) {
+            System.err.println(cfg.getMethod().getName() + ": " + count + " quads moved out of loops");
+        }
+        g = null;
+        dom = null;
+        reaching = null;
+    }
+
+    /* Returns the quads of a loop that can move to its preheader, each
+     * after the ones it reads. */
+    private List<Integer> findInvariant(Loops.Loop loop) {
+        List<Integer> found = new ArrayList<Integer>();
+        boolean[] invariant = new boolean[g.size()];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int n = 0; n < g.size(); n++) {
+                if (!loop.contains(n) || moved[n] || invariant[n]) continue;
+                if (isMovable(g.getQuad(n)) && readsInvariant(n, loop, invariant)
+                    && isOnlyDefRead(n)) {
+                    invariant[n] = true;
+                    found.add(n);
+                    changed = true;
+                }
+            }
+        }
+        return found;
+    }
+
+    /* Moves and arithmetic that cannot throw. */
+    private static boolean isMovable(Quad q) {
+        Operator opr = q.getOperator();
+        if (!(opr instanceof Operator.Move) && !(opr instanceof Operator.Binary)
+            && !(opr instanceof Operator.Unary)) {
+            return false;
+        }
+        if (opr instanceof Operator.Binary.DIV_I || opr instanceof Operator.Binary.DIV_L
+            || opr instanceof Operator.Binary.REM_I || opr instanceof Operator.Binary.REM_L) {
+            return false;
+        }
+        return q.getThrownExceptions().isEmpty() && q.getDefinedRegisters().size() == 1;
+    }
+
+    /* Whether every register node n reads has, on entry to n, the
+     * value it had on entry to the loop, or that of one invariant
+     * quad of the loop dominating n. */
+    private boolean readsInvariant(int n, Loops.Loop loop, boolean[] invariant) {
+        for (List<Quad> defs : reaching.get(n).values()) {
+            boolean inside = false;
+            for (Quad d : defs) {
+                int m = g.indexOf(d);
+                inside |= loop.contains(m) && !moved[m];
+            }
+            if (!inside) continue;
+            if (defs.size() != 1) return false;
+            int m = g.indexOf(defs.get(0));
+            if (!invariant[m] || !dom.dominates(m, n)) return false;
+        }
+        return true;
+    }
+
+    /* Whether node n dominates every quad reading the register n
+     * writes where n may reach, and those see no other definition of
+     * it. */
+    private boolean isOnlyDefRead(int n) {
+        Quad q = g.getQuad(n);
+        Register x = q.getDefinedRegisters().get(0).getRegister();
+        for (int m = 0; m < g.size(); m++) {
+            if (!dom.isReached(m)) continue;
+            List<Quad> defs = reaching.get(m).get(x);
+            if (defs == null || !defs.contains(q)) continue;
+            if (defs.size() > 1 || !dom.dominates(n, m)) return false;
+        }
+        return true;
+    }
+
+    /* Has node n write a new register, and the quads it reaches read
+     * that one. */
+    private void rename(ControlFlowGraph cfg, int n) {
+        Quad q = g.getQuad(n);
+        RegisterOperand def = q.getDefinedRegisters().get(0);
+        Register x = def.getRegister();
+        Register t = cfg.getRegisterFactory().makeTempReg(x.getType());
+        for (int m = 0; m < g.size(); m++) {
+            List<Quad> defs = reaching.get(m).get(x);
+            if (defs == null || !defs.contains(q)) continue;
+            for (RegisterOperand use : g.getQuad(m).getUsedRegisters()) {
+                if (use.getRegister() == x) use.setRegister(t);
+            }
+        }
+        def.setRegister(t);
+    }
+}
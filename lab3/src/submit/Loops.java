@@ -0,0 +1,139 @@
+package submit;
+
+import java.util.*;
+import joeq.Compiler.Quad.*;
+import joeq.Compiler.Quad.Operand.TargetOperand;
+import flow.QuadGraph;
+
+/**
+ * The natural loops of a forward QuadGraph.
+ *
+ * An edge from n to a quad h that dominates n is a back edge, and its
+ * natural loop is h with every quad that reaches n without going
+ * through h.  The loops of the back edges into one header are merged
+ * into one, so two loops are either disjoint or one is inside the
+ * other.  Quads no path from the entry reaches are in no loop.
+ * getLoops lists them outermost first.
+ *
+ * insertPreheader gives a loop a block of its own on the way in, for
+ * code that must run once before it.
+ */
+public class Loops {
+
+    public static class Loop {
+        private final int header;
+        /* By graph node: whether it is in the loop. */
+        private final boolean[] body;
+        private int size;
+
+        Loop(int header, int nodes) {
+            this.header = header;
+            body = new boolean[nodes];
+        }
+
+        public int getHeader() { return header; }
+        public boolean contains(int n) { return body[n]; }
+        public int size() { return size; }
+    }
+
+    private final QuadGraph g;
+    private final List<Loop> loops = new ArrayList<Loop>();
+
+    public Loops(Dominators dom) {
+        g = dom.getGraph();
+        Map<Integer, Loop> byHeader = new LinkedHashMap<Integer, Loop>();
+        int[] stack = new int[g.size()];
+        for (int n = 0; n < g.size(); n++) {
+            for (int k = g.succBegin(n); k < g.succEnd(n); k++) {
+                int h = g.succ(k);
+                if (!dom.dominates(h, n)) continue;
+                Loop loop = byHeader.get(h);
+                if (loop == null) {
+                    loop = new Loop(h, g.size());
+                    loop.body[h] = true;
+                    loop.size = 1;
+                    byHeader.put(h, loop);
+                }
+                // walk back from n, stopping at the header.
+                int sp = 0;
+                if (!loop.body[n]) {
+                    loop.body[n] = true;
+                    loop.size++;
+                    stack[sp++] = n;
+                }
+                while (sp > 0) {
+                    int v = stack[--sp];
+                    for (int j = g.predBegin(v); j < g.predEnd(v); j++) {
+                        int p = g.pred(j);
+                        if (loop.body[p] || !dom.isReached(p)) continue;
+                        loop.body[p] = true;
+                        loop.size++;
+                        stack[sp++] = p;
+                    }
+                }
+            }
+        }
+        loops.addAll(byHeader.values());
+        Collections.sort(loops, new Comparator<Loop>() {
+            public int compare(Loop a, Loop b) {
+                return b.size - a.size;
+            }
+        });
+    }
+
+    /**
+     * Returns the loops, each before the loops inside it.
+     */
+    public List<Loop> getLoops() { return loops; }
+
+    /**
+     * Puts a new block before the header of a loop, and sends every
+     * edge into the header from outside the loop there instead; the
+     * new block falls through to the header.  Returns the new block,
+     * or null if the header is not the start of a block entered only
+     * by the entry, falls through, Gotos or IntIfCmps.
+     */
+    public static BasicBlock insertPreheader(ControlFlowGraph cfg, QuadGraph g, Loop loop) {
+        Quad head = g.getQuad(loop.getHeader());
+        BasicBlock h = g.getBlock(loop.getHeader());
+        if (h.getQuad(0) != head || h.isExceptionHandlerEntry()) return null;
+
+        List<BasicBlock> outside = new ArrayList<BasicBlock>();
+        for (BasicBlock p : h.getPredecessors()) {
+            if (p.isEntry()) {
+                outside.add(p);
+                continue;
+            }
+            if (p.size() == 0) return null;
+            Quad last = p.getLastQuad();
+            if (loop.contains(g.indexOf(last))) continue;
+            if (p.getSuccessors().indexOf(h) != p.getSuccessors().lastIndexOf(h)) return null;
+            Operator opr = last.getOperator();
+            if (opr instanceof Operator.Branch && !(opr instanceof Operator.Goto)
+                && !(opr instanceof Operator.IntIfCmp)) {
+                return null;
+            }
+            outside.add(p);
+        }
+        if (outside.isEmpty()) return null;
+
+        BasicBlock pre = cfg.createBasicBlock(outside.size(), 1, 0, null);
+        for (BasicBlock p : outside) {
+            List<BasicBlock> succs = p.getSuccessors();
+            succs.set(succs.indexOf(h), pre);
+            Quad last = p.size() > 0 ? p.getLastQuad() : null;
+            TargetOperand target = null;
+            if (last != null && last.getOperator() instanceof Operator.Goto) {
+                target = Operator.Goto.getTarget(last);
+            } else if (last != null && last.getOperator() instanceof Operator.IntIfCmp) {
+                target = Operator.IntIfCmp.getTarget(last);
+            }
+            if (target != null && target.getTarget() == h) target.setTarget(pre);
+            h.removePredecessor(p);
+            pre.addPredecessor(p);
+        }
+        pre.addSuccessor(h);
+        h.addPredecessor(pre);
+        return pre;
+    }
+}
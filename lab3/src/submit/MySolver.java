@@ -3,9 +3,8 @@ package submit;
 // some useful things to import. add any additional imports you need.
 import joeq.Compiler.Quad.*;
 
-import java.util.Iterator;
-
 import flow.Flow;
+import flow.QuadGraph;
 
 /**
  * Skeleton class for implementing the Flow.Solver interface.
@@ -41,25 +40,25 @@ public class MySolver implements Flow.Solver {
          ***********************/
         Boolean hasUpdate = true;
 
-        if (analysis.isForward()) {
+        if (analysis instanceof Flow.InPlaceAnalysis) {
+            visitCFGInPlace(cfg, (Flow.InPlaceAnalysis) analysis);
+        }
+
+        else if (analysis.isForward()) {
+            QuadGraph g = new QuadGraph(cfg, true);
             while (hasUpdate == true) {
-                QuadIterator qit = new QuadIterator(cfg);
                 hasUpdate = false;
-                while (qit.hasNext()) {
-                    Quad q = qit.next();
+                for (int n = 0; n < g.size(); n++) {
+                    Quad q = g.getQuad(n);
                     Flow.DataflowObject inOld = analysis.newTempVar(), meetObj = analysis.newTempVar();
                     meetObj.setToTop();
                     inOld.copy(analysis.getIn(q));
-                    Iterator<Quad> predQit = qit.predecessors();
-
-                    while (predQit.hasNext()) {
-                        Quad predQ = predQit.next();
-                        if (predQ == null) { // predecessor is entry
-                            meetObj.meetWith(analysis.getEntry());
-                        }
-                        else {
-                            meetObj.meetWith(analysis.getOut(predQ));
-                        }
+
+                    if (g.fromStart(n)) { // predecessor is entry
+                        meetObj.meetWith(analysis.getEntry());
+                    }
+                    for (int k = g.predBegin(n); k < g.predEnd(n); k++) {
+                        meetObj.meetWith(analysis.getOut(g.getQuad(g.pred(k))));
                     }
                     analysis.setIn(q, meetObj);
                     analysis.processQuad(q);
@@ -73,41 +72,29 @@ public class MySolver implements Flow.Solver {
             // Handle exit node
             Flow.DataflowObject meetObj = analysis.newTempVar();
             meetObj.setToTop();
-            QuadIterator qit = new QuadIterator(cfg);
-            while (qit.hasNext()) {
-                Quad q = qit.next();
-                
-                Iterator<Quad> succQit = qit.successors();
-
-                while (succQit.hasNext()) {
-                    Quad succQ = succQit.next();
-                    if (succQ == null) { // successor is exit
-                        meetObj.meetWith(analysis.getOut(q));
-                    }
+            for (int n = 0; n < g.size(); n++) {
+                if (g.toEnd(n)) { // successor is exit
+                    meetObj.meetWith(analysis.getOut(g.getQuad(n)));
                 }
-                analysis.setExit(meetObj);
             }
+            analysis.setExit(meetObj);
         }
 
         else {
+            QuadGraph g = new QuadGraph(cfg, false);
             while (hasUpdate == true) {
-                QuadIterator qit = new QuadIterator(cfg, false);
                 hasUpdate = false;
-                while (qit.hasPrevious()) {
-                    Quad q = qit.previous();
+                for (int n = 0; n < g.size(); n++) {
+                    Quad q = g.getQuad(n);
                     Flow.DataflowObject outOld = analysis.newTempVar(), meetObj = analysis.newTempVar();
                     meetObj.setToTop();
                     outOld.copy(analysis.getOut(q));
-                    Iterator<Quad> succQit = qit.successors();
-
-                    while (succQit.hasNext()) {
-                        Quad succQ = succQit.next();
-                        if (succQ == null) { // successor is exit
-                            meetObj.meetWith(analysis.getExit());
-                        }
-                        else {
-                            meetObj.meetWith(analysis.getIn(succQ));
-                        }
+
+                    if (g.fromStart(n)) { // successor is exit
+                        meetObj.meetWith(analysis.getExit());
+                    }
+                    for (int k = g.predBegin(n); k < g.predEnd(n); k++) {
+                        meetObj.meetWith(analysis.getIn(g.getQuad(g.pred(k))));
                     }
                     analysis.setOut(q, meetObj);
                     analysis.processQuad(q);
@@ -121,23 +108,68 @@ public class MySolver implements Flow.Solver {
             // Handle exit node
             Flow.DataflowObject meetObj = analysis.newTempVar();
             meetObj.setToTop();
-            QuadIterator qit = new QuadIterator(cfg, false);
-            while (qit.hasPrevious()) {
-                Quad q = qit.previous();
-                
-                Iterator<Quad> predQit = qit.predecessors();
-
-                while (predQit.hasNext()) {
-                    Quad predQ = predQit.next();
-                    if (predQ == null) { // predecessor is entry
-                        meetObj.meetWith(analysis.getIn(q));
-                    }
+            for (int n = 0; n < g.size(); n++) {
+                if (g.toEnd(n)) { // predecessor is entry
+                    meetObj.meetWith(analysis.getIn(g.getQuad(n)));
                 }
-                analysis.setEntry(meetObj);
             }
+            analysis.setEntry(meetObj);
         }
         
         // this needs to come last.
         analysis.postprocess(cfg);
     }
+
+    /**
+     * Same sweeps as visitCFG, but meets straight into the values
+     * stored by the analysis and relies on transfer() to report
+     * changes, so no dataflow objects are copied or allocated.
+     */
+    private void visitCFGInPlace(ControlFlowGraph cfg, Flow.InPlaceAnalysis analysis) {
+        boolean forward = analysis.isForward();
+        boolean hasUpdate = true;
+        QuadGraph g = new QuadGraph(cfg, forward);
+        // the meet is built apart and copied over the stored value, so
+        // the stored value only changes (and transfer only has work to
+        // do) when the meet really is different.
+        Flow.DataflowObject meetObj = analysis.newTempVar();
+
+        while (hasUpdate) {
+            hasUpdate = false;
+            for (int n = 0; n < g.size(); n++) {
+                Quad q = g.getQuad(n);
+                Flow.DataflowObject input = forward ? analysis.peekIn(q) : analysis.peekOut(q);
+
+                if (!g.fromStart(n) && g.predEnd(n) - g.predBegin(n) == 1) {
+                    // a single predecessor needs no meet.
+                    Quad other = g.getQuad(g.pred(g.predBegin(n)));
+                    input.copy(forward ? analysis.peekOut(other) : analysis.peekIn(other));
+                } else {
+                    meetObj.setToTop();
+                    if (g.fromStart(n)) { // entry or exit
+                        meetObj.meetWith(forward ? analysis.peekEntry() : analysis.peekExit());
+                    }
+                    for (int k = g.predBegin(n); k < g.predEnd(n); k++) {
+                        Quad other = g.getQuad(g.pred(k));
+                        meetObj.meetWith(forward ? analysis.peekOut(other) : analysis.peekIn(other));
+                    }
+                    input.copy(meetObj);
+                }
+
+                if (analysis.transfer(q)) {
+                    hasUpdate = true;
+                }
+            }
+        }
+
+        // Handle exit node
+        Flow.DataflowObject end = forward ? analysis.peekExit() : analysis.peekEntry();
+        end.setToTop();
+        for (int n = 0; n < g.size(); n++) {
+            if (g.toEnd(n)) { // exit or entry
+                Quad q = g.getQuad(n);
+                end.meetWith(forward ? analysis.peekOut(q) : analysis.peekIn(q));
+            }
+        }
+    }
 }
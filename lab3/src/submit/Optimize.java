@@ -1,8 +1,11 @@
 package submit;
 
+import java.util.ArrayList;
 import java.util.List;
 import joeq.Class.jq_Class;
+import joeq.Compiler.Quad.ControlFlowGraph;
 import joeq.Main.Helper;
+import flow.ParallelDriver;
 
 public class Optimize {
     /*
@@ -10,38 +13,69 @@ public class Optimize {
      * if nullCheckOnly is true, disable all optimizations except "remove redundant NULL_CHECKs."
      */
     public static void optimize(List<String> optimizeFiles, boolean nullCheckOnly) {
-        
-        // get an instance of the solver class.
-        MySolver solver = new MySolver();
-
-        // get an instance of the analysis class.
-        RemoveRedundantNullChecks analysis = new RemoveRedundantNullChecks();
-        solver.registerAnalysis(analysis);
 
+        // collect the methods of all the classes, so each pass can run
+        // over all of them at once.
+        List<ControlFlowGraph> cfgs = new ArrayList<ControlFlowGraph>();
         for (int i = 0; i < optimizeFiles.size(); i++) {
             jq_Class classes = (jq_Class)Helper.load(optimizeFiles.get(i));
-            // Run your optimization on each classes.
-
-            // register the analysis with the solver.
-            Helper.runPass(classes, solver);
+            cfgs.addAll(ParallelDriver.getCFGs(classes));
         }
 
+        // run each pass over all the methods, on as many threads as
+        // ParallelDriver.defaultThreads says.
+        run(cfgs, WorklistSolver.class, RemoveRedundantNullChecks.class);
+
         if (!nullCheckOnly) {
-            // get an instance of the solver class.
-            solver = new MySolver();
+            // fold constants first, so the computations they make
+            // unused are dead by the time Liveness looks.  SCCSolver
+            // refines along edges, which leaves the arms of branches
+            // the constants decide out.
+            run(cfgs, SCCSolver.class, FoldConstants.class);
 
-            // get an instance of the analysis class.
-            Liveness analysis2 = new Liveness();
-            solver.registerAnalysis(analysis2);
+            // number values along the dominator tree, which finds the
+            // repeats that differ only through copies or the order of
+            // commutative operands.  -Dflow.gvn=false leaves it out.
+            if (Boolean.parseBoolean(System.getProperty("flow.gvn", "true"))) {
+                run(cfgs, WorklistSolver.class, GlobalValueNumbering.class);
+            }
 
-            for (int i = 0; i < optimizeFiles.size(); i++) {
-                jq_Class classes = (jq_Class)Helper.load(optimizeFiles.get(i));
-                // Run your optimization on each classes.
+            // reuse the results of expressions computed before,
+            // through copies for the next pass to see through.
+            run(cfgs, WorklistSolver.class, CommonSubexpressions.class);
 
-                // register the analysis with the solver.
-                Helper.runPass(classes, solver);
-            }
+            // and of arithmetic computed on only some of the paths
+            // before, by moving it to where every path needs it.
+            run(cfgs, WorklistSolver.class, LazyCodeMotion.class);
+
+            // what is left the same on every iteration of a loop moves
+            // into a block of its own before the loop.
+            run(cfgs, WorklistSolver.class, LoopInvariantCodeMotion.class);
+
+            // then read every value from the register it was first
+            // copied from, which leaves the copies unread.  Checks of
+            // different copies of one reference become checks of the
+            // same register, so look for redundant ones again.
+            run(cfgs, WorklistSolver.class, CopyPropagation.class);
+
+            run(cfgs, WorklistSolver.class, RemoveRedundantNullChecks.class);
+
+            // the same for array bounds: an index checked against an
+            // array need not be checked again until one is rewritten.
+            run(cfgs, WorklistSolver.class, RemoveRedundantBoundsChecks.class);
+
+            run(cfgs, WorklistSolver.class, Liveness.class);
         }
 
     }
+
+    /* Runs one pass over every CFG and prints what it printed, in the
+     * order of the CFGs. */
+    private static void run(List<ControlFlowGraph> cfgs, Class<?> solver, Class<?> analysis) {
+        ParallelDriver driver = new ParallelDriver(solver, analysis,
+            ParallelDriver.defaultThreads());
+        for (String s : driver.run(cfgs)) {
+            System.out.print(s);
+        }
+    }
 }
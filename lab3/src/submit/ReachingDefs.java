@@ -0,0 +1,206 @@
+package submit;
+
+import java.util.*;
+import joeq.Compiler.Quad.*;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+import joeq.Compiler.Quad.RegisterFactory.Register;
+import flow.AnalysisContext;
+import flow.FactStore;
+import flow.Flow;
+import flow.PersistentBitSet;
+import flow.RunBitmap;
+
+/**
+ * Reaching definitions: the quads whose definition of a register may
+ * still be the register's value at a point, as in hw2, and kept the
+ * same way: PersistentBitSets of quad indices, killed by a RunBitmap
+ * of each register's definitions.
+ *
+ * postprocess prints the definitions reaching each quad by quad ID.
+ * The passes built on it ask a DefSet which definitions of a register
+ * reach, through defsOf.
+ */
+public class ReachingDefs implements Flow.InPlaceAnalysis {
+
+    public static class DefSet implements Flow.VersionedObject {
+        /* Holds the indices of the quads that reach. */
+        private final PersistentBitSet set;
+        private final AnalysisContext context;
+        /* By register index: the quads defining it. */
+        private final RunBitmap[] defining;
+
+        public DefSet(AnalysisContext context, RunBitmap[] defining) {
+            this.context = context;
+            this.defining = defining;
+            set = new PersistentBitSet(context.getNumQuads());
+        }
+
+        public void setToTop() { set.clear(); }
+        public void setToBottom() {
+            set.clear();
+            for (int i = 0; i < context.getNumQuads(); i++) set.add(i);
+        }
+
+        public void meetWith(Flow.DataflowObject o) {
+            set.or(((DefSet) o).set);
+        }
+
+        public void copy(Flow.DataflowObject o) {
+            set.copy(((DefSet) o).set);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof DefSet) {
+                return set.equals(((DefSet) o).set);
+            }
+            return false;
+        }
+        @Override
+        public int hashCode() {
+            return set.hashCode();
+        }
+        public long getVersion() {
+            return set.getVersion();
+        }
+        @Override
+        public String toString() {
+            // quad indices are in ID order, so the IDs come out sorted.
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = set.next(0); i >= 0; i = set.next(i + 1)) {
+                if (sb.length() > 1) sb.append(", ");
+                sb.append(context.getQuad(i).getID());
+            }
+            return sb.append(']').toString();
+        }
+
+        public void genVar(Quad q) { set.add(context.getQuadIndex(q)); }
+
+        /**
+         * Kills every definition of r.
+         */
+        public void kill(Register r) {
+            set.andNot(defining[context.getRegisterIndex(r)]);
+        }
+
+        /**
+         * Returns the definitions of r that reach, in quad ID order;
+         * none means r still holds its value from the method's entry.
+         */
+        public List<Quad> defsOf(Register r) {
+            List<Quad> defs = new ArrayList<Quad>();
+            RunBitmap d = defining[context.getRegisterIndex(r)];
+            for (int k = 0; k < d.runCount(); k++) {
+                for (int i = d.runStart(k); i < d.runEnd(k); i++) {
+                    if (set.contains(i)) defs.add(context.getQuad(i));
+                }
+            }
+            return defs;
+        }
+    }
+
+    protected FactStore facts;
+    protected DefSet entry, exit;
+    protected AnalysisContext context;
+    private RunBitmap[] defining;
+
+    public void preprocess(ControlFlowGraph cfg) {
+        context = new AnalysisContext(cfg);
+        defining = new RunBitmap[context.getNumRegisters()];
+        for (int r = 0; r < defining.length; r++) {
+            defining[r] = new RunBitmap();
+        }
+        for (int i = 0; i < context.getNumQuads(); i++) {
+            for (RegisterOperand def : context.getQuad(i).getDefinedRegisters()) {
+                defining[context.getRegisterIndex(def.getRegister())].add(i);
+            }
+        }
+
+        entry = new DefSet(context, defining);
+        exit = new DefSet(context, defining);
+        facts = new FactStore(context, this, transferfn);
+    }
+
+    public void postprocess(ControlFlowGraph cfg) {
+        System.out.println("Method: "+cfg.getMethod().getName().toString());
+        System.out.println("entry: "+entry.toString());
+        for (int i=0; i<facts.size(); i++) {
+            if (facts.getQuad(i) != null) {
+                System.out.println(i+" in:  "+facts.peekIn(i).toString());
+                System.out.println(i+" out: "+facts.peekOut(i).toString());
+            }
+        }
+        System.out.println("exit: "+exit.toString());
+    }
+
+    /* Is this a forward dataflow analysis? */
+    public boolean isForward() { return true; }
+
+    /* Routines for interacting with dataflow values. */
+
+    public Flow.DataflowObject getEntry() {
+        Flow.DataflowObject result = newTempVar();
+        result.copy(entry);
+        return result;
+    }
+    public Flow.DataflowObject getExit() {
+        Flow.DataflowObject result = newTempVar();
+        result.copy(exit);
+        return result;
+    }
+    public Flow.DataflowObject getIn(Quad q) {
+        return facts.getIn(q);
+    }
+    public Flow.DataflowObject getOut(Quad q) {
+        return facts.getOut(q);
+    }
+    public void setIn(Quad q, Flow.DataflowObject value) {
+        facts.setIn(q, value);
+    }
+    public void setOut(Quad q, Flow.DataflowObject value) {
+        facts.setOut(q, value);
+    }
+    public void setEntry(Flow.DataflowObject value) {
+        entry.copy(value);
+    }
+    public void setExit(Flow.DataflowObject value) {
+        exit.copy(value);
+    }
+
+    public Flow.DataflowObject peekEntry() { return entry; }
+    public Flow.DataflowObject peekExit() { return exit; }
+    public Flow.DataflowObject peekIn(Quad q) { return facts.peekIn(q); }
+    public Flow.DataflowObject peekOut(Quad q) { return facts.peekOut(q); }
+
+    public Flow.DataflowObject newTempVar() { return new DefSet(context, defining); }
+
+    /* Actually perform the transfer operation on the relevant
+     * quad. */
+
+    private TransferFunction transferfn = new TransferFunction();
+    public void processQuad(Quad q) {
+        transfer(q);
+    }
+
+    public boolean transfer(Quad q) {
+        return facts.transfer(q);
+    }
+
+    /* The QuadVisitor that actually does the computation */
+    public static class TransferFunction extends QuadVisitor.EmptyVisitor implements FactStore.Transfer {
+        DefSet val;
+        public void apply(Quad q, Flow.DataflowObject v) {
+            val = (DefSet) v;
+            visitQuad(q);
+        }
+        @Override
+        public void visitQuad(Quad q) {
+            for (RegisterOperand def : q.getDefinedRegisters()) {
+                val.kill(def.getRegister());
+            }
+            if (!q.getDefinedRegisters().isEmpty()) {
+                val.genVar(q);
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package submit;
+
+import java.util.*;
+import joeq.Compiler.Quad.*;
+import joeq.Compiler.Quad.Operand.RegisterOperand;
+import joeq.Compiler.Quad.RegisterFactory.Register;
+import flow.AnalysisContext;
+import flow.BitVector;
+import flow.FactStore;
+import flow.Flow;
+
+/**
+ * Removes the BOUNDS_CHECKs of an array and index already checked on
+ * every path to them.
+ *
+ * The facts are the (array, index) pairs checked on every path to a
+ * quad, where the index is a register or a constant, with neither
+ * register written since.  An array's length never changes, so a
+ * check of a pair that is in the fact before it cannot fail, and
+ * postprocess removes it.  Run with -Dflow.stats=true to print the
+ * checks removed per method.
+ *
+ * A pair counts as checked after the ALoad or AStore of it that
+ * follows its BOUNDS_CHECK, not after the check itself: the check's
+ * fact also flows into the handlers it may throw to, which run
+ * exactly when the pair failed.  The access throws nothing itself, so
+ * only the code the check let through sees the pair.
+ */
+public class RemoveRedundantBoundsChecks implements Flow.InPlaceAnalysis {
+
+    /**
+     * The (array, index) pairs the BOUNDS_CHECKs of one CFG check,
+     * numbered densely in quad ID order.
+     */
+    public static class Checks {
+        private final AnalysisContext context;
+        /* The first quad checking each pair. */
+        private final List<Quad> first = new ArrayList<Quad>();
+        /* By quad index: the pair a quad checks, or -1. */
+        private final int[] number;
+        /* By quad index: the pair an ALoad or AStore accesses, if some
+         * quad checks it, or -1. */
+        private final int[] passed;
+        /* By register index. */
+        private final BitVector[] mentioning;
+
+        public Checks(AnalysisContext context) {
+            this.context = context;
+            number = new int[context.getNumQuads()];
+            passed = new int[context.getNumQuads()];
+            Map<String, Integer> ids = new HashMap<String, Integer>();
+            for (int i = 0; i < number.length; i++) {
+                Quad q = context.getQuad(i);
+                number[i] = -1;
+                if (!(q.getOperator() instanceof Operator.BoundsCheck)) continue;
+                String key = key(Operator.BoundsCheck.getRef(q), Operator.BoundsCheck.getIndex(q));
+                Integer c = ids.get(key);
+                if (c == null) {
+                    c = first.size();
+                    ids.put(key, c);
+                    first.add(q);
+                }
+                number[i] = c;
+            }
+            for (int i = 0; i < passed.length; i++) {
+                Quad q = context.getQuad(i);
+                Operator opr = q.getOperator();
+                String key = null;
+                if (opr instanceof Operator.ALoad) {
+                    key = key(Operator.ALoad.getBase(q), Operator.ALoad.getIndex(q));
+                } else if (opr instanceof Operator.AStore) {
+                    key = key(Operator.AStore.getBase(q), Operator.AStore.getIndex(q));
+                }
+                Integer c = (key == null) ? null : ids.get(key);
+                passed[i] = (c == null) ? -1 : c;
+            }
+
+            mentioning = new BitVector[context.getNumRegisters()];
+            for (int r = 0; r < mentioning.length; r++) {
+                mentioning[r] = new BitVector(first.size());
+            }
+            for (int c = 0; c < first.size(); c++) {
+                for (RegisterOperand use : first.get(c).getUsedRegisters()) {
+                    if (use.getRegister().isGuard()) continue;
+                    mentioning[context.getRegisterIndex(use.getRegister())].set(c);
+                }
+            }
+        }
+
+        public int size() { return first.size(); }
+
+        /**
+         * Returns the first quad, in ID order, checking pair c.
+         */
+        public Quad get(int c) { return first.get(c); }
+
+        /**
+         * Returns the pair q checks, or -1 if it is no BOUNDS_CHECK.
+         */
+        public int numberOf(Quad q) { return number[context.getQuadIndex(q)]; }
+
+        /**
+         * Returns the pair an ALoad or AStore q accesses, or -1 if q is
+         * neither or no quad checks its pair.
+         */
+        public int passedBy(Quad q) { return passed[context.getQuadIndex(q)]; }
+
+        private static String key(Operand array, Operand index) {
+            return key(array) + ", " + key(index);
+        }
+
+        private static String key(Operand op) {
+            if (op instanceof RegisterOperand) {
+                return ((RegisterOperand) op).getRegister().toString();
+            }
+            return op.toString();
+        }
+    }
+
+    public static class CheckSet implements Flow.VersionedObject {
+        /* Bit c is set if pair c has been checked. */
+        private final BitVector set;
+        private final Checks checks;
+
+        public CheckSet(Checks checks) {
+            this.checks = checks;
+            set = new BitVector(checks.size());
+            set.setAll();
+        }
+
+        public void setToTop() { set.setAll(); }
+        public void setToBottom() { set.clearAll(); }
+
+        public void meetWith(Flow.DataflowObject o) {
+            set.and(((CheckSet) o).set);
+        }
+
+        public void copy(Flow.DataflowObject o) {
+            set.copy(((CheckSet) o).set);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof CheckSet) {
+                return set.equals(((CheckSet) o).set);
+            }
+            return false;
+        }
+        @Override
+        public int hashCode() {
+            return set.hashCode();
+        }
+        public long getVersion() {
+            return set.getVersion();
+        }
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("[");
+            for (int c = set.nextSetBit(0); c >= 0; c = set.nextSetBit(c + 1)) {
+                if (sb.length() > 1) sb.append(", ");
+                sb.append(checks.get(c).getID());
+            }
+            return sb.append(']').toString();
+        }
+
+        public boolean has(int c) { return set.get(c); }
+        public void gen(int c) { set.set(c); }
+
+        /**
+         * Kills the pairs that read r.
+         */
+        public void kill(Register r) {
+            set.andNot(checks.mentioning[checks.context.getRegisterIndex(r)]);
+        }
+    }
+
+    private FactStore facts;
+    private CheckSet entry, exit;
+    private AnalysisContext context;
+    private Checks checks;
+
+    public void preprocess(ControlFlowGraph cfg) {
+        context = new AnalysisContext(cfg);
+        checks = new Checks(context);
+
+        entry = new CheckSet(checks);
+        exit = new CheckSet(checks);
+        facts = new FactStore(context, this, transferfn);
+
+        /* Nothing is checked on entry. */
+        entry.setToBottom();
+    }
+
+    public void postprocess(ControlFlowGraph cfg) {
+        int count = 0;
+        QuadIterator qit = new QuadIterator(cfg);
+        while (qit.hasNext()) {
+            Quad q = qit.next();
+            int c = checks.numberOf(q);
+            if (c >= 0 && ((CheckSet) facts.peekIn(q)).has(c)) {
+                qit.remove();
+                count++;
+            }
+        }
+
+        if (Boolean.getBoolean("flow.stats")) {
+            System.err.println(cfg.getMethod().getName() + ": " + count + " redundant bounds checks removed");
+        }
+    }
+
+    /* Is this a forward dataflow analysis? */
+    public boolean isForward() { return true; }
+
+    /* Routines for interacting with dataflow values. */
+
+    public Flow.DataflowObject getEntry() {
+        Flow.DataflowObject result = newTempVar();
+        result.copy(entry);
+        return result;
+    }
+    public Flow.DataflowObject getExit() {
+        Flow.DataflowObject result = newTempVar();
+        result.copy(exit);
+        return result;
+    }
+    public Flow.DataflowObject getIn(Quad q) {
+        return facts.getIn(q);
+    }
+    public Flow.DataflowObject getOut(Quad q) {
+        return facts.getOut(q);
+    }
+    public void setIn(Quad q, Flow.DataflowObject value) {
+        facts.setIn(q, value);
+    }
+    public void setOut(Quad q, Flow.DataflowObject value) {
+        facts.setOut(q, value);
+    }
+    public void setEntry(Flow.DataflowObject value) {
+        entry.copy(value);
+    }
+    public void setExit(Flow.DataflowObject value) {
+        exit.copy(value);
+    }
+
+    public Flow.DataflowObject peekEntry() { return entry; }
+    public Flow.DataflowObject peekExit() { return exit; }
+    public Flow.DataflowObject peekIn(Quad q) { return facts.peekIn(q); }
+    public Flow.DataflowObject peekOut(Quad q) { return facts.peekOut(q); }
+
+    public Flow.DataflowObject newTempVar() { return new CheckSet(checks); }
+
+    /* Actually perform the transfer operation on the relevant
+     * quad. */
+
+    private TransferFunction transferfn = new TransferFunction();
+    public void processQuad(Quad q) {
+        transfer(q);
+    }
+
+    public boolean transfer(Quad q) {
+        return facts.transfer(q);
+    }
+
+    /* The QuadVisitor that actually does the computation.  An access
+     * of a pair shows its BOUNDS_CHECK passed. */
+    public static class TransferFunction extends QuadVisitor.EmptyVisitor implements FactStore.Transfer {
+        CheckSet val;
+        public void apply(Quad q, Flow.DataflowObject v) {
+            val = (CheckSet) v;
+            visitQuad(q);
+        }
+        @Override
+        public void visitQuad(Quad q) {
+            for (RegisterOperand def : q.getDefinedRegisters()) {
+                val.kill(def.getRegister());
+            }
+            int c = val.checks.passedBy(q);
+            if (c >= 0) val.gen(c);
+        }
+    }
+}
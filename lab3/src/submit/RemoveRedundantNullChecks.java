@@ -4,6 +4,10 @@ package submit;
 import java.util.*;
 import joeq.Compiler.Quad.*;
 import joeq.Compiler.Quad.Operand.RegisterOperand;
+import joeq.Compiler.Quad.RegisterFactory.Register;
+import flow.AnalysisContext;
+import flow.BitVector;
+import flow.FactStore;
 import flow.Flow;
 import joeq.Main.Helper;
 
@@ -11,34 +15,38 @@ import joeq.Main.Helper;
  * Skeleton class for implementing a faint variable analysis
  * using the Flow.Analysis interface.
  */
-public class RemoveRedundantNullChecks implements Flow.Analysis {
+public class RemoveRedundantNullChecks implements Flow.InPlaceAnalysis {
 
     /**
      * Class for the dataflow objects in the Faintness analysis.
      * You are free to change this class or move it to another file.
      */
-    public static class VarSet implements Flow.DataflowObject {
-        private Set<String> set;
-        public static Set<String> universalSet;
-        public VarSet() { set = new TreeSet<String>(universalSet); }
+    public static class VarSet implements Flow.VersionedObject {
+        private final BitVector set;
+        private final AnalysisContext context;
+        public VarSet(AnalysisContext context) {
+            this.context = context;
+            set = new BitVector(context.getNumRegisters());
+            set.setAll();
+        }
         /**
          * Methods from the Flow.DataflowObject interface.
          * See Flow.java for the meaning of these methods.
          * These need to be filled in.
          */
-        public void setToTop() { set = new TreeSet<String>(universalSet); }
-        public void setToBottom() { set = new TreeSet<String>(); }
+        public void setToTop() { set.setAll(); }
+        public void setToBottom() { set.clearAll(); }
 
         public void meetWith(Flow.DataflowObject o) 
         {
             VarSet a = (VarSet)o;
-            set.retainAll(a.set);
+            set.and(a.set);
         }
 
         public void copy(Flow.DataflowObject o) 
         {
             VarSet a = (VarSet) o;
-            set = new TreeSet<String>(a.set);
+            set.copy(a.set);
         }
 
         @Override
@@ -65,27 +73,39 @@ public class RemoveRedundantNullChecks implements Flow.Analysis {
         public int hashCode() {
             return set.hashCode();
         }
+        public long getVersion() {
+            return set.getVersion();
+        }
         @Override
         public String toString() 
         {
-            return set.toString();
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+                if (sb.length() > 1) sb.append(", ");
+                sb.append(context.getRegisterName(i));
+            }
+            return sb.append(']').toString();
         }
 
-        public void genVar(String v) {set.add(v);}
-        public void killVar(String v) {set.remove(v);}
-        public boolean hasVar(String v) {return set.contains(v);}
+        public void genVar(String v) {set.set(context.getRegisterIndex(v));}
+        public void killVar(String v) {set.clear(context.getRegisterIndex(v));}
+        public boolean hasVar(String v) {return set.get(context.getRegisterIndex(v));}
+        public void genVar(Register r) {set.set(context.getRegisterIndex(r));}
+        public void killVar(Register r) {set.clear(context.getRegisterIndex(r));}
+        public boolean hasVar(Register r) {return set.get(context.getRegisterIndex(r));}
     }
 
     /**
      * Dataflow objects for the interior and entry/exit points
-     * of the CFG. in[ID] and out[ID] store the entry and exit
-     * state for the input and output of the quad with identifier ID.
+     * of the CFG. facts stores the entry and exit state for the
+     * input and output of every quad; see FactStore.
      *
      * You are free to modify these fields, just make sure to
      * preserve the data printed by postprocess(), which relies on these.
      */
-    private VarSet[] in, out;
+    private FactStore facts;
     private VarSet entry, exit;
+    private AnalysisContext context;
 
     /**
      * This method initializes the datflow framework.
@@ -96,49 +116,17 @@ public class RemoveRedundantNullChecks implements Flow.Analysis {
         // this line must come first.
         // System.out.println("Method: "+cfg.getMethod().getName().toString());
 
-        // get the amount of space we need to allocate for the in/out arrays.
-        QuadIterator qit = new QuadIterator(cfg);
-        int max = 0;
-        while (qit.hasNext()) {
-            int id = qit.next().getID();
-            if (id > max) max = id;
-        }
-        max += 1;
-
-        // allocate the in and out arrays.
-        in = new VarSet[max];
-        out = new VarSet[max];
+        /* The registers (arguments are always there) are kept in the
+         * context shared by all the VarSets of this CFG. */
+        context = new AnalysisContext(cfg);
 
-        // initialize the contents of in and out.
-        qit = new QuadIterator(cfg);
-
-        Set<String> s = new TreeSet<String>();
-        VarSet.universalSet = s;
-
-        /* Arguments are always there. */
-        int numargs = cfg.getMethod().getParamTypes().length;
-        for (int i = 0; i < numargs; i++) {
-            s.add("R"+i);
-        }
-
-        while (qit.hasNext()) {
-            Quad q = qit.next();
-            int id = q.getID();
-            in[id] = new VarSet();
-            out[id] = new VarSet();
-            for (RegisterOperand def : q.getDefinedRegisters()) {
-                s.add(def.getRegister().toString());
-            }
-            for (RegisterOperand use : q.getUsedRegisters()) {
-                s.add(use.getRegister().toString());
-            }
-        }
+        // allocate the in and out values.
+        facts = new FactStore(context, this, transferfn);
 
         // initialize the entry and exit points.
-        transferfn.val = new VarSet();
-        entry = new VarSet();
+        entry = new VarSet(context);
         entry.setToBottom();
-        exit = new VarSet();
+        exit = new VarSet(context);
 
         /************************************************
          * Your remaining initialization code goes here *
@@ -164,7 +152,7 @@ public class RemoveRedundantNullChecks implements Flow.Analysis {
             if (q.getOperator() instanceof Operator.NullCheck) {
                 for (RegisterOperand use : q.getUsedRegisters()) {
                     String usedReg = use.getRegister().toString();
-                    if (in[id].hasVar(usedReg)) {
+                    if (((VarSet) facts.peekIn(q)).hasVar(usedReg)) {
                         redundantIdSet.add(id);
                         qit.remove();
                     }
@@ -213,23 +201,19 @@ public class RemoveRedundantNullChecks implements Flow.Analysis {
     }
     public Flow.DataflowObject getIn(Quad q) 
     {
-        Flow.DataflowObject result = newTempVar();
-        result.copy(in[q.getID()]); 
-        return result;
+        return facts.getIn(q);
     }
     public Flow.DataflowObject getOut(Quad q) 
     {
-        Flow.DataflowObject result = newTempVar();
-        result.copy(out[q.getID()]); 
-        return result;
+        return facts.getOut(q);
     }
     public void setIn(Quad q, Flow.DataflowObject value) 
     { 
-        in[q.getID()].copy(value); 
+        facts.setIn(q, value); 
     }
     public void setOut(Quad q, Flow.DataflowObject value) 
     { 
-        out[q.getID()].copy(value); 
+        facts.setOut(q, value); 
     }
     public void setEntry(Flow.DataflowObject value) 
     { 
@@ -240,31 +224,41 @@ public class RemoveRedundantNullChecks implements Flow.Analysis {
         exit.copy(value); 
     }
 
-    public Flow.DataflowObject newTempVar() { return new VarSet(); }
+    public Flow.DataflowObject peekEntry() { return entry; }
+    public Flow.DataflowObject peekExit() { return exit; }
+    public Flow.DataflowObject peekIn(Quad q) { return facts.peekIn(q); }
+    public Flow.DataflowObject peekOut(Quad q) { return facts.peekOut(q); }
+
+    public Flow.DataflowObject newTempVar() { return new VarSet(context); }
 
     /* Actually perform the transfer operation on the relevant
      * quad. */
 
     private TransferFunction transferfn = new TransferFunction ();
     public void processQuad(Quad q) {
-        // system.out.println("Process Quad "+q.getID());
-        transferfn.val.copy(in[q.getID()]);
-        transferfn.visitQuad(q);
-        out[q.getID()].copy(transferfn.val);
+        transfer(q);
+    }
+
+    public boolean transfer(Quad q) {
+        return facts.transfer(q);
     }
 
     /* The QuadVisitor that actually does the computation */
-    public static class TransferFunction extends QuadVisitor.EmptyVisitor {
+    public static class TransferFunction extends QuadVisitor.EmptyVisitor implements FactStore.Transfer {
         VarSet val;
+        public void apply(Quad q, Flow.DataflowObject v) {
+            val = (VarSet) v;
+            visitQuad(q);
+        }
 
         @Override
         public void visitQuad (Quad q) {
             for (RegisterOperand def : q.getDefinedRegisters()) {
-                val.killVar(def.getRegister().toString());
+                val.killVar(def.getRegister());
             }
             if (q.getOperator() instanceof Operator.NullCheck) {
                 for (RegisterOperand use : q.getUsedRegisters()) {
-                    val.genVar(use.getRegister().toString());
+                    val.genVar(use.getRegister());
                 }
             }
 
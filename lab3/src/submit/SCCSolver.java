@@ -0,0 +1,206 @@
+package submit;
+
+import joeq.Compiler.Quad.*;
+
+import flow.Components;
+import flow.Flow;
+import flow.QuadGraph;
+
+/**
+ * Flow.Solver that solves the quad graph one strongly connected
+ * component at a time.
+ *
+ * The components are visited in topological order, so every value
+ * flowing into a component is final by the time it is visited, and a
+ * component without a cycle is visited once.  A loop is solved with
+ * Bourdoncle's recursive strategy: its head, the first of its quads in
+ * the order MySolver sweeps them, is visited, then the rest of the
+ * loop is split into components and solved the same way, and this is
+ * repeated until the head's output stops changing.  The loop is never
+ * visited again, so a slowly converging loop costs sweeps of that loop
+ * only, not of the whole method.
+ *
+ * Every cycle passes through the head of some loop, so if the
+ * analysis's values are Flow.WideningObjects, the value at each head is
+ * widened with what flows into it instead of replaced, which makes
+ * every loop stable after finitely many visits even on lattices of
+ * infinite height.  The whole graph is then solved again with
+ * narrowing at the heads instead, until nothing changes.
+ *
+ * If the analysis is a Flow.EdgeAnalysis, every value that crosses
+ * from one basic block to another is refined for that edge before it
+ * is met.
+ *
+ * Run with -Dflow.stats=true to print the number of transfer calls
+ * and loops per method.
+ */
+public class SCCSolver implements Flow.Solver {
+
+    /* How a visit combines the meet with the stored value. */
+    private static final int REPLACE = 0, WIDEN = 1, NARROW = 2;
+
+    protected Flow.Analysis analysis;
+
+    private QuadGraph g;
+    private Flow.DataflowObject meetObj, edgeObj;
+    private long transfers;
+    private long cfgTransfers;
+    private int loops;
+
+    /**
+     * Sets the analysis.  When visitCFG is called, it will
+     * perform this analysis on a given CFG.
+     *
+     * @param analyzer The analysis to run
+     */
+    public void registerAnalysis(Flow.Analysis analyzer) {
+        this.analysis = analyzer;
+    }
+
+    /**
+     * Runs the solver over a given control flow graph.  Prior
+     * to calling this, an analysis must be registered using
+     * registerAnalysis
+     *
+     * @param cfg The control flow graph to analyze.
+     */
+    public void visitCFG(ControlFlowGraph cfg) {
+
+        // this needs to come first.
+        analysis.preprocess(cfg);
+
+        boolean forward = analysis.isForward();
+        g = new QuadGraph(cfg, forward);
+        meetObj = analysis.newTempVar();
+        edgeObj = analysis.newTempVar();
+        cfgTransfers = 0;
+        loops = 0;
+
+        int[] all = new int[g.size()];
+        for (int n = 0; n < all.length; n++) {
+            all[n] = n;
+        }
+        if (meetObj instanceof Flow.WideningObject) {
+            solve(all, WIDEN);
+            while (solve(all, NARROW)) { }
+        } else {
+            solve(all, REPLACE);
+        }
+
+        // Handle exit node
+        meetObj.setToTop();
+        for (int n = 0; n < g.size(); n++) {
+            if (g.toEnd(n)) { // exit or entry
+                Quad q = g.getQuad(n);
+                meetObj.meetWith(forward ? analysis.getOut(q) : analysis.getIn(q));
+            }
+        }
+        if (forward) {
+            analysis.setExit(meetObj);
+        } else {
+            analysis.setEntry(meetObj);
+        }
+
+        transfers += cfgTransfers;
+        if (Boolean.getBoolean("flow.stats")) {
+            System.err.println(cfg.getMethod().getName() + ": " + cfgTransfers
+                + " transfers, " + loops + " loops");
+        }
+        g = null;
+        meetObj = null;
+        edgeObj = null;
+
+        // this needs to come last.
+        analysis.postprocess(cfg);
+    }
+
+    /* Solves the subgraph made of the given nodes, combining values
+     * at loop heads by the given mode; returns whether any output
+     * changed. */
+    private boolean solve(int[] subset, int mode) {
+        Components sccs = new Components(g, subset);
+        boolean changed = false;
+        for (int c = 0; c < sccs.count(); c++) {
+            int head = sccs.node(sccs.begin(c));
+            if (!sccs.isLoop(c)) {
+                changed |= visit(head, REPLACE);
+                continue;
+            }
+            if (mode != NARROW) loops++;
+            int[] rest = new int[sccs.end(c) - sccs.begin(c) - 1];
+            for (int k = 0; k < rest.length; k++) {
+                rest[k] = sccs.node(sccs.begin(c) + 1 + k);
+            }
+            for (boolean first = true; ; first = false) {
+                boolean headChanged = visit(head, mode);
+                changed |= headChanged;
+                if (!first && !headChanged) break;
+                changed |= solve(rest, mode);
+            }
+        }
+        return changed;
+    }
+
+    /* Meets the values flowing into node n, combines the meet with
+     * its stored input by mode, transfers it, and returns whether its
+     * output changed. */
+    private boolean visit(int n, int mode) {
+        boolean forward = g.isForward();
+        Quad q = g.getQuad(n);
+        cfgTransfers++;
+        meetObj.setToTop();
+        if (g.fromStart(n)) { // entry or exit
+            meetObj.meetWith(forward ? analysis.getEntry() : analysis.getExit());
+        }
+
+        if (analysis instanceof Flow.InPlaceAnalysis) {
+            Flow.InPlaceAnalysis inPlace = (Flow.InPlaceAnalysis) analysis;
+            for (int k = g.predBegin(n); k < g.predEnd(n); k++) {
+                Quad other = g.getQuad(g.pred(k));
+                meet(g.pred(k), n, forward ? inPlace.peekOut(other) : inPlace.peekIn(other));
+            }
+            combine(forward ? inPlace.peekIn(q) : inPlace.peekOut(q), mode);
+            return inPlace.transfer(q);
+        }
+
+        for (int k = g.predBegin(n); k < g.predEnd(n); k++) {
+            Quad other = g.getQuad(g.pred(k));
+            meet(g.pred(k), n, forward ? analysis.getOut(other) : analysis.getIn(other));
+        }
+        Flow.DataflowObject input = forward ? analysis.getIn(q) : analysis.getOut(q);
+        Flow.DataflowObject outOld = forward ? analysis.getOut(q) : analysis.getIn(q);
+        combine(input, mode);
+        if (forward) {
+            analysis.setIn(q, input);
+        } else {
+            analysis.setOut(q, input);
+        }
+        analysis.processQuad(q);
+        return !(forward ? analysis.getOut(q) : analysis.getIn(q)).equals(outOld);
+    }
+
+    /* Meets the value leaving node p for node n into meetObj, refined
+     * for the edge if it crosses into another block. */
+    private void meet(int p, int n, Flow.DataflowObject value) {
+        if (analysis instanceof Flow.EdgeAnalysis && g.getBlock(p) != g.getBlock(n)) {
+            edgeObj.copy(value);
+            ((Flow.EdgeAnalysis) analysis).refine(g.getQuad(p), g.getBlock(n), edgeObj);
+            value = edgeObj;
+        }
+        meetObj.meetWith(value);
+    }
+
+    /* Puts the combination of input and the meet into input. */
+    private void combine(Flow.DataflowObject input, int mode) {
+        switch (mode) {
+        case WIDEN: ((Flow.WideningObject) input).widenWith(meetObj); break;
+        case NARROW: ((Flow.WideningObject) input).narrowWith(meetObj); break;
+        default: input.copy(meetObj); break;
+        }
+    }
+
+    /**
+     * Returns the number of transfer calls made so far.
+     */
+    public long getTransferCount() { return transfers; }
+}
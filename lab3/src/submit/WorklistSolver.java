@@ -0,0 +1,318 @@
+package submit;
+
+import joeq.Compiler.Quad.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import flow.Flow;
+import flow.QuadGraph;
+
+/**
+ * Worklist implementation of the Flow.Solver interface.
+ *
+ * Quads are numbered in the order MySolver sweeps them: reverse
+ * postorder for forward analyses and postorder for backward ones.
+ * Only the quads whose inputs depend on a value that actually changed
+ * are revisited, always lowest number first, so every round of the
+ * worklist computes exactly what one round-robin sweep would, minus
+ * the transfers that could not change anything.
+ *
+ * Run with -Dflow.stats=true to print the number of transfer calls
+ * against the number a round-robin solver would have made.
+ */
+public class WorklistSolver implements Flow.Solver {
+
+    protected Flow.Analysis analysis;
+
+    /* Whether a whole basic block is the unit of work. */
+    private final boolean blocks;
+
+    private long transfers, roundRobinTransfers, meets, comparisons;
+
+    public WorklistSolver() { this(false); }
+
+    /**
+     * @param blocks If true, the worklist holds basic blocks instead of
+     *               single quads; see BlockSolver.
+     */
+    protected WorklistSolver(boolean blocks) { this.blocks = blocks; }
+
+    /**
+     * Sets the analysis.  When visitCFG is called, it will
+     * perform this analysis on a given CFG.
+     *
+     * @param analyzer The analysis to run
+     */
+    public void registerAnalysis(Flow.Analysis analyzer) {
+        this.analysis = analyzer;
+    }
+
+    /**
+     * Runs the solver over a given control flow graph.  Prior
+     * to calling this, an analysis must be registered using
+     * registerAnalysis
+     *
+     * @param cfg The control flow graph to analyze.
+     */
+    public void visitCFG(ControlFlowGraph cfg) {
+
+        // this needs to come first.
+        analysis.preprocess(cfg);
+
+        boolean forward = analysis.isForward();
+
+        // number the quads in sweep order.  sources[i] lists the quads
+        // whose values meet into quad i (-1 stands for entry/exit), and
+        // boundary lists the quads that feed the exit (or entry).
+        // Quads of one basic block are numbered consecutively, and
+        // unitStart marks where each unit of work begins.
+        QuadGraph g = new QuadGraph(cfg, forward);
+        int n = g.size();
+        List<Quad> quads = new ArrayList<Quad>(n);
+        List<Quad> boundary = new ArrayList<Quad>();
+        List<Integer> unitStart = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) {
+            if (!blocks || i == 0 || g.getBlock(i) != g.getBlock(i - 1)) {
+                unitStart.add(i);
+            }
+            quads.add(g.getQuad(i));
+            if (g.toEnd(i)) {
+                boundary.add(g.getQuad(i));
+            }
+        }
+
+        int units = unitStart.size();
+        unitStart.add(n);
+        int[] unitOf = new int[n];
+        for (int u = 0; u < units; u++) {
+            for (int i = unitStart.get(u); i < unitStart.get(u + 1); i++) {
+                unitOf[i] = u;
+            }
+        }
+
+        int[][] sources = new int[n][];
+        int[] numDependents = new int[n];
+        for (int i = 0; i < n; i++) {
+            int first = g.predBegin(i), extra = g.fromStart(i) ? 1 : 0;
+            sources[i] = new int[g.predEnd(i) - first + extra];
+            if (extra > 0) sources[i][0] = -1;
+            for (int k = first; k < g.predEnd(i); k++) {
+                int src = g.pred(k);
+                sources[i][k - first + extra] = src;
+                numDependents[src]++;
+            }
+        }
+        // dependents is the exact inverse of sources, so a change is
+        // always pushed to every quad that reads it.
+        int[][] dependents = new int[n][];
+        for (int i = 0; i < n; i++) {
+            dependents[i] = new int[numDependents[i]];
+            numDependents[i] = 0;
+        }
+        for (int i = 0; i < n; i++) {
+            for (int src : sources[i]) {
+                if (src >= 0) dependents[src][numDependents[src]++] = i;
+            }
+        }
+
+        // a chained quad only reads the quad before it in the same
+        // unit, so it needs neither a meet nor a change check.  An
+        // exported quad is read by some quad that is not chained to it.
+        boolean[] chained = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            chained[i] = i > 0 && unitOf[i] == unitOf[i - 1]
+                && sources[i].length == 1 && sources[i][0] == i - 1;
+        }
+        boolean[] exported = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            for (int d : dependents[i]) {
+                if (!chained[d]) exported[i] = true;
+            }
+        }
+
+        // every unit is visited once; after that only what changed.
+        Flow.InPlaceAnalysis inPlace = (analysis instanceof Flow.InPlaceAnalysis)
+            ? (Flow.InPlaceAnalysis) analysis : null;
+        BitSet pending = new BitSet(units);
+        pending.set(0, units);
+        Flow.DataflowObject[] outOld = new Flow.DataflowObject[n];
+        Flow.DataflowObject meet = analysis.newTempVar();
+        int cursor = 0, rounds = 1, sweeps = 0;
+        boolean inputChanged = false;
+        long cfgTransfers = 0, cfgMeets = 0, cfgComparisons = 0;
+
+        while (!pending.isEmpty()) {
+            int u = pending.nextSetBit(cursor);
+            if (u < 0) {
+                // a round-robin solver stops after the first quiet sweep.
+                if (!inputChanged && sweeps == 0) sweeps = rounds;
+                rounds++;
+                cursor = 0;
+                inputChanged = false;
+                continue;
+            }
+            pending.clear(u);
+            cursor = u + 1;
+
+            int lo = unitStart.get(u), hi = unitStart.get(u + 1);
+
+            if (inPlace != null) {
+                // meet and copy straight into the stored values; transfer()
+                // says whether anything changed, so no old values are kept.
+                // Without them the input check becomes an output check,
+                // which makes the round-robin count an estimate.  A meet
+                // is built apart and copied over the stored value, so a
+                // versioned value only changes if the meet does.
+                for (int i = lo; i < hi; i++) {
+                    Quad q = quads.get(i);
+                    Flow.DataflowObject input = forward ? inPlace.peekIn(q) : inPlace.peekOut(q);
+                    if (chained[i]) {
+                        Quad p = quads.get(i - 1);
+                        input.copy(forward ? inPlace.peekOut(p) : inPlace.peekIn(p));
+                    } else {
+                        meet.setToTop();
+                        for (int src : sources[i]) {
+                            if (src < 0) {
+                                meet.meetWith(forward ? inPlace.peekEntry() : inPlace.peekExit());
+                            } else {
+                                Quad s = quads.get(src);
+                                meet.meetWith(forward ? inPlace.peekOut(s) : inPlace.peekIn(s));
+                            }
+                            cfgMeets++;
+                        }
+                        input.copy(meet);
+                    }
+                    boolean changed = inPlace.transfer(q);
+                    cfgTransfers++;
+                    cfgComparisons++;
+                    if (changed) {
+                        inputChanged = true;
+                        if (exported[i]) {
+                            for (int d : dependents[i]) {
+                                pending.set(unitOf[d]);
+                            }
+                        }
+                    }
+                }
+                continue;
+            }
+
+            for (int i = lo; i < hi; i++) {
+                if (exported[i]) {
+                    outOld[i] = forward ? analysis.getOut(quads.get(i)) : analysis.getIn(quads.get(i));
+                }
+            }
+
+            for (int i = lo; i < hi; i++) {
+                Quad q = quads.get(i);
+                if (chained[i]) {
+                    Quad p = quads.get(i - 1);
+                    if (forward) {
+                        analysis.setIn(q, analysis.getOut(p));
+                    } else {
+                        analysis.setOut(q, analysis.getIn(p));
+                    }
+                } else {
+                    Flow.DataflowObject meetObj = analysis.newTempVar();
+                    meetObj.setToTop();
+                    for (int src : sources[i]) {
+                        if (src < 0) {
+                            meetObj.meetWith(forward ? analysis.getEntry() : analysis.getExit());
+                        } else {
+                            Quad s = quads.get(src);
+                            meetObj.meetWith(forward ? analysis.getOut(s) : analysis.getIn(s));
+                        }
+                        cfgMeets++;
+                    }
+                    Flow.DataflowObject inOld = forward ? analysis.getIn(q) : analysis.getOut(q);
+                    if (forward) {
+                        analysis.setIn(q, meetObj);
+                    } else {
+                        analysis.setOut(q, meetObj);
+                    }
+                    cfgComparisons++;
+                    if (!meetObj.equals(inOld)) {
+                        inputChanged = true;
+                    }
+                }
+                analysis.processQuad(q);
+                cfgTransfers++;
+            }
+
+            for (int i = lo; i < hi; i++) {
+                if (!exported[i]) continue;
+                cfgComparisons++;
+                Quad q = quads.get(i);
+                if (!(forward ? analysis.getOut(q) : analysis.getIn(q)).equals(outOld[i])) {
+                    for (int d : dependents[i]) {
+                        pending.set(unitOf[d]);
+                    }
+                }
+                outOld[i] = null;
+            }
+        }
+        if (sweeps == 0) sweeps = inputChanged ? rounds + 1 : rounds;
+
+        // Handle exit node
+        if (inPlace != null) {
+            Flow.DataflowObject meetObj = forward ? inPlace.peekExit() : inPlace.peekEntry();
+            meetObj.setToTop();
+            for (Quad q : boundary) {
+                meetObj.meetWith(forward ? inPlace.peekOut(q) : inPlace.peekIn(q));
+            }
+        } else {
+            Flow.DataflowObject meetObj = analysis.newTempVar();
+            meetObj.setToTop();
+            for (Quad q : boundary) {
+                meetObj.meetWith(forward ? analysis.getOut(q) : analysis.getIn(q));
+            }
+            if (forward) {
+                analysis.setExit(meetObj);
+            } else {
+                analysis.setEntry(meetObj);
+            }
+        }
+
+        transfers += cfgTransfers;
+        roundRobinTransfers += (long) sweeps * n;
+        meets += cfgMeets;
+        comparisons += cfgComparisons;
+        if (Boolean.getBoolean("flow.stats")) {
+            System.err.println(cfg.getMethod().getName() + ": " + cfgTransfers
+                + " transfers, " + cfgMeets + " meets, " + cfgComparisons
+                + " comparisons, round-robin " + (long) sweeps * n
+                + ", saved " + ((long) sweeps * n - cfgTransfers));
+        }
+
+        // this needs to come last.
+        analysis.postprocess(cfg);
+    }
+
+    /**
+     * Returns the number of transfer calls made so far.
+     */
+    public long getTransferCount() { return transfers; }
+
+    /**
+     * Returns the number of transfer calls a round-robin sweep solver
+     * visiting quads in the same order would have made so far.
+     */
+    public long getRoundRobinTransferCount() { return roundRobinTransfers; }
+
+    /**
+     * Returns the number of transfer calls saved over round-robin.
+     */
+    public long getSavedTransferCount() { return roundRobinTransfers - transfers; }
+
+    /**
+     * Returns the number of meetWith calls made so far.
+     */
+    public long getMeetCount() { return meets; }
+
+    /**
+     * Returns the number of dataflow value comparisons made so far.
+     */
+    public long getComparisonCount() { return comparisons; }
+}
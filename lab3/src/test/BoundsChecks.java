@@ -0,0 +1,116 @@
+package test;
+
+/*
+ * Array accesses that check the same index against the same array
+ * more than once, for RemoveRedundantBoundsChecks, and some whose
+ * checks must stay.  BoundsChecks.extra.out keeps the "redundant bounds
+ * checks removed" line of each method and the values main prints,
+ * from
+ *
+ *   bin/parun -Dflow.stats=true submit.OptimizeHarness --extra-credit \
+ *     --optimize test.BoundsChecks --run-main test.BoundsChecks
+ *
+ * shifted, oneArm and the two handler methods must stay at 0.
+ */
+public class BoundsChecks {
+
+    /* the store checks what the load already did. */
+    static void increment(int[] a, int i) {
+        a[i] = a[i] + 1;
+    }
+
+    /* the swap checks each index twice. */
+    static void swap(int[] a, int i, int j) {
+        int t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+
+    /* a constant index, checked on both arms before the join. */
+    static int first(int[] a, boolean twice) {
+        int s;
+        if (twice) {
+            s = a[0] * 2;
+        } else {
+            s = a[0];
+        }
+        return s + a[0];
+    }
+
+    /* i changes between the reads, so each is checked. */
+    static int shifted(int[] a, int i) {
+        int s = a[i];
+        i++;
+        return s + a[i];
+    }
+
+    /* only one arm checks a[i], so the read after the join is checked. */
+    static int oneArm(int[] a, int i, boolean read) {
+        int s = 0;
+        if (read) {
+            s = a[i];
+        }
+        return s + a[i];
+    }
+
+    /* the second check of the same pair must still throw. */
+    static int outOfRange(int[] a, int i) {
+        try {
+            int s = a[i];
+            return s + a[i];
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    /* the handler runs only when a[i] failed its check, so checking
+     * it again there must fail too. */
+    static int loadInHandler(int[] a, int i) {
+        int r;
+        try {
+            r = a[i];
+        } catch (ArrayIndexOutOfBoundsException e) {
+            try {
+                r = a[i] + 100;
+            } catch (ArrayIndexOutOfBoundsException e2) {
+                r = -2;
+            }
+        }
+        return r;
+    }
+
+    /* the same with a store in the handler. */
+    static int storeInHandler(int[] a, int i) {
+        int r;
+        try {
+            r = a[i];
+        } catch (ArrayIndexOutOfBoundsException e) {
+            try {
+                a[i] = 7;
+                r = 7;
+            } catch (ArrayIndexOutOfBoundsException e2) {
+                r = -3;
+            }
+        }
+        return r;
+    }
+
+    public static void main(String[] args) {
+        int[] a = { 3, 1, 4, 1, 5 };
+        increment(a, 2);
+        System.out.println(a[2]);
+        swap(a, 0, 4);
+        System.out.println(a[0]);
+        System.out.println(a[4]);
+        System.out.println(first(a, true));
+        System.out.println(first(a, false));
+        System.out.println(shifted(a, 1));
+        System.out.println(oneArm(a, 3, true));
+        System.out.println(oneArm(a, 3, false));
+        System.out.println(outOfRange(a, 4));
+        System.out.println(outOfRange(a, 5));
+        System.out.println(loadInHandler(new int[3], 5));
+        System.out.println(loadInHandler(new int[] { 4, 5, 6 }, 1));
+        System.out.println(storeInHandler(new int[3], 5));
+    }
+}
@@ -0,0 +1,72 @@
+package test;
+
+/*
+ * Branches whose outcome FoldConstants decides, some of them only
+ * because it leaves the arms it knows are never taken out of the
+ * constants where they meet.  The number it decides in each method is
+ * in its "branches decided" line, which Branches.extra.out keeps along
+ * with the values main prints, from
+ *
+ *   bin/parun -Dflow.stats=true submit.OptimizeHarness --extra-credit \
+ *     --optimize test.Branches --run-main test.Branches
+ */
+public class Branches {
+
+    /* x is 1 at the loop head only if the assignment of 2 is known
+     * never to run, which plain constant propagation cannot tell. */
+    static int loop(int a) {
+        int x = 1;
+        while (a > 0) {
+            if (x != 1) {
+                x = 2;
+            }
+            a--;
+        }
+        return x + a;
+    }
+
+    /* the arms of the first if meet with k still a constant. */
+    static int arms(int a) {
+        int k = 3, r;
+        if (k > 2) {
+            k = 5;
+            r = a;
+        } else {
+            k = 7;
+            r = -a;
+        }
+        if (k == 5) {
+            r += 10;
+        }
+        return r;
+    }
+
+    static int nulls(int a) {
+        Object o = null;
+        if (o != null) {
+            return -a;
+        }
+        return a;
+    }
+
+    /* the only block the handler covers is never reached. */
+    static int handler(int a, int[] arr) {
+        int k = 0;
+        if (k != 0) {
+            try {
+                a = arr[a];
+            } catch (ArrayIndexOutOfBoundsException e) {
+                a = -1;
+            }
+        }
+        return a;
+    }
+
+    public static void main(String[] args) {
+        System.out.println(loop(3));
+        System.out.println(loop(-2));
+        System.out.println(arms(4));
+        System.out.println(nulls(6));
+        System.out.println(handler(2, new int[1]));
+    }
+}
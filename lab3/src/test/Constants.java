@@ -0,0 +1,64 @@
+package test;
+
+/*
+ * Constant arithmetic of every primitive type for FoldConstants: int,
+ * long, float and double operators, narrowing conversions, NaN, and a
+ * division by zero that must still throw.  main prints what each
+ * method returns.  Constants.extra.out holds the "quads folded" line
+ * FoldConstants prints for each method, then the program's output, of
+ *
+ *   bin/parun -Dflow.stats=true submit.OptimizeHarness --extra-credit \
+ *     --optimize test.Constants --run-main test.Constants
+ */
+public class Constants {
+
+    static int ints(int a) {
+        int x = 3, y = 4;
+        int z = x * y + 2;
+        int sh = (1 << 4) >>> 1;
+        int q = (-17) / 4 + (-17) % 4;
+        int n = -z ^ 5;
+        return a * z + sh + q + n;
+    }
+
+    static int longs(int a) {
+        long x = 10L * 3L;
+        long y = x - 7;
+        long s = (y << 33) >> 31;
+        return (int) (y + a) + (int) (s >>> 2);
+    }
+
+    static int floats(int a) {
+        double d = 2.5 * 2;
+        float f = 1.5f + 1;
+        double n = 0.0 / 0.0;
+        int c = (n == n) ? 1 : 2;
+        int i = (int) (d / 0.0) + (int) (f * -1e30f);
+        return (int) d + (int) f + c + (i == -1 ? a : -a);
+    }
+
+    static int narrow(int a) {
+        char ch = (char) -1;
+        short sh = (short) 70000;
+        byte by = (byte) 200;
+        return ch + sh + by + a;
+    }
+
+    /* a constant division by zero must still throw. */
+    static int divide(int a) {
+        int z = 0;
+        try {
+            return a / z;
+        } catch (ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    public static void main(String[] args) {
+        System.out.println(ints(2));
+        System.out.println(longs(5));
+        System.out.println(floats(3));
+        System.out.println(narrow(1));
+        System.out.println(divide(7));
+    }
+}
@@ -0,0 +1,48 @@
+package test;
+
+/*
+ * Chains of copies for CopyPropagation, where a register a later read
+ * goes back to may have been written again since.  main prints what
+ * each method returns.  Copies.extra.out keeps the "uses rewritten"
+ * line CopyPropagation prints for each method, and what main printed,
+ * from
+ *
+ *   bin/parun -Dflow.stats=true submit.OptimizeHarness --extra-credit \
+ *     --optimize test.Copies --run-main test.Copies
+ */
+public class Copies {
+
+    /* b = a is rewritten to b = x, but x changes before b is read, so
+     * the read of b goes back to a and no further. */
+    static int rewrittenSource(int x) {
+        int a = x;
+        int b = a;
+        x = x + 1;
+        return b * x;
+    }
+
+    /* the chain c = b = a = x holds all the way. */
+    static int chain(int x) {
+        int a = x;
+        int b = a;
+        int c = b;
+        return c + a;
+    }
+
+    /* a changes in the loop, so b = a only holds until it does. */
+    static int loop(int x, int n) {
+        int a = x, s = 0;
+        for (int i = 0; i < n; i++) {
+            int b = a;
+            a = a + i;
+            s += b;
+        }
+        return s;
+    }
+
+    public static void main(String[] args) {
+        System.out.println(rewrittenSource(3));
+        System.out.println(chain(5));
+        System.out.println(loop(1, 4));
+    }
+}
@@ -0,0 +1,51 @@
+package test;
+
+/*
+ * Methods FoldConstants leaves with empty basic blocks, which javac's
+ * code never has, for QuadGraph and the analyses run after the folding
+ * to handle.  main prints what each method returns.
+ * EmptyBlocks.extra.out records which branches were folded away, from
+ * the FoldConstants lines, and what main printed, in the output of
+ *
+ *   bin/parun -Dflow.stats=true submit.OptimizeHarness --extra-credit \
+ *     --optimize test.EmptyBlocks --run-main test.EmptyBlocks
+ */
+public class EmptyBlocks {
+
+    /* the loop and the if are never entered, so folding their
+     * branches empties the blocks that held them, one of them where a
+     * backward walk of the CFG starts. */
+    static int deadLoop(int a) {
+        int k = 0;
+        while (k > 0) {
+            k--;
+            a++;
+        }
+        boolean f = false;
+        if (f) a = 100;
+        return a + k;
+    }
+
+    /* folding the second branch empties the block where the arms of
+     * the first if meet, and a + b must not be taken as available
+     * after it, since the else arm does not compute it. */
+    static int join(int a, int b) {
+        int k = 1, r;
+        if (a > 0) {
+            r = a + b;
+        } else {
+            r = 0;
+        }
+        if (k > 0) {
+            r += a + b;
+        }
+        return r;
+    }
+
+    public static void main(String[] args) {
+        System.out.println(deadLoop(4));
+        System.out.println(deadLoop(-7));
+        System.out.println(join(2, 3));
+        System.out.println(join(-2, 3));
+    }
+}
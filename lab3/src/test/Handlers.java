@@ -0,0 +1,52 @@
+package test;
+
+/*
+ * Exception handlers that the null check removal leaves with no quad
+ * throwing into them, which the passes built on the dominator tree
+ * must step over.  Handlers.extra.out keeps the line
+ * GlobalValueNumbering prints for each method, where the second read
+ * of o.f counts as redundant, and what main prints, from
+ *
+ *   bin/parun -Dflow.stats=true submit.OptimizeHarness --extra-credit \
+ *     --optimize test.Handlers --run-main test.Handlers
+ */
+public class Handlers {
+
+    int f;
+
+    /* o.f was read before the try, so the second read cannot throw
+     * and the handler is never reached. */
+    static int checkedBefore(Handlers o) {
+        int a = o.f;
+        int x;
+        try {
+            x = o.f + a;
+        } catch (NullPointerException e) {
+            x = -1;
+        }
+        return x;
+    }
+
+    /* the same, with a loop after the handler. */
+    static int loopAfter(Handlers o, int n) {
+        int a = o.f;
+        int x;
+        try {
+            x = o.f + a;
+        } catch (NullPointerException e) {
+            x = -1;
+        }
+        for (int i = 0; i < n; i++) {
+            x += a * 2;
+        }
+        return x;
+    }
+
+    public static void main(String[] args) {
+        Handlers o = new Handlers();
+        o.f = 3;
+        System.out.println(checkedBefore(o));
+        System.out.println(loopAfter(o, 2));
+        System.out.println(loopAfter(o, 0));
+    }
+}
@@ -0,0 +1,94 @@
+package test;
+
+/*
+ * Loops with computations that are the same on every iteration, for
+ * LoopInvariantCodeMotion to move out, and some that look like it but
+ * must stay.  LoopInvariants.extra.out keeps the "quads moved out of
+ * loops" line of each method and the values main prints, from
+ *
+ *   bin/parun -Dflow.stats=true submit.OptimizeHarness --extra-credit \
+ *     --optimize test.LoopInvariants --run-main test.LoopInvariants
+ *
+ * In zeroTrip and firstIteration only a + b moves; the copy of it
+ * into x or y stays in the loop.
+ */
+public class LoopInvariants {
+
+    /* a * b + 1 moves before the loop, even though the loop may not
+     * run at all, since nothing after it reads k. */
+    static int simple(int[] arr, int a, int b) {
+        int s = 0;
+        for (int i = 0; i < arr.length; i++) {
+            int k = a * b + 1;
+            s += arr[i] * k;
+        }
+        return s;
+    }
+
+    /* a + b moves out of both loops, and a + b + i out of the inner. */
+    static int nested(int a, int b, int n) {
+        int s = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                int t = a + b;
+                int u = t + i;
+                s += u * j;
+            }
+        }
+        return s;
+    }
+
+    /* x is read after the loop, which may not have set it. */
+    static int readAfter(int a, int n) {
+        int x = 5;
+        while (n > 0) {
+            x = a + 1;
+            n--;
+        }
+        return x;
+    }
+
+    /* y depends on the iteration through x. */
+    static int carried(int a, int n) {
+        int x = 0, s = 0;
+        while (n > 0) {
+            int y = x * 2;
+            x = a + y;
+            s += y;
+            n--;
+        }
+        return s;
+    }
+
+    /* x keeps the argument when the loop does not run, which is no
+     * definition for reaching definitions to see. */
+    static int zeroTrip(int x, int a, int b, int n) {
+        for (int i = 0; i < n; i++) {
+            x = a + b;
+        }
+        return x;
+    }
+
+    /* y reads the argument x on the first iteration and a + b after. */
+    static int firstIteration(int x, int a, int b, int n) {
+        int s = 0;
+        for (int i = 0; i < n; i++) {
+            int y = x + 1;
+            x = a + b;
+            s += y;
+        }
+        return s;
+    }
+
+    public static void main(String[] args) {
+        System.out.println(simple(new int[] { 1, 2, 3 }, 2, 3));
+        System.out.println(simple(new int[0], 2, 3));
+        System.out.println(nested(1, 2, 3));
+        System.out.println(readAfter(4, 2));
+        System.out.println(readAfter(4, 0));
+        System.out.println(carried(1, 3));
+        System.out.println(zeroTrip(100, 3, 4, 0));
+        System.out.println(zeroTrip(100, 3, 4, 2));
+        System.out.println(firstIteration(100, 3, 4, 2));
+    }
+}
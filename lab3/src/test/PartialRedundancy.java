@@ -0,0 +1,53 @@
+package test;
+
+/*
+ * Expressions computed again where only some of the paths to them
+ * computed them before, for LazyCodeMotion to move.  What it placed
+ * and replaced in each method is in the "computations placed" lines
+ * PartialRedundancy.extra.out keeps, after which come the values main
+ * prints, all from
+ *
+ *   bin/parun -Dflow.stats=true submit.OptimizeHarness --extra-credit \
+ *     --optimize test.PartialRedundancy --run-main test.PartialRedundancy
+ */
+public class PartialRedundancy {
+
+    /* a * b after the if is only redundant on the path through it;
+     * the computation goes onto the other edge instead. */
+    static int diamond(int a, int b, int c) {
+        int x = 0;
+        if (c > 0) {
+            x = a * b;
+        }
+        return x + a * b;
+    }
+
+    /* a + b is computed on every iteration, and moves before the
+     * loop, which always runs at least once. */
+    static int loop(int a, int b, int n) {
+        int s = 0;
+        do {
+            s += a + b;
+            n--;
+        } while (n > 0);
+        return s;
+    }
+
+    /* b changes on one arm, so a - b is not moved above it. */
+    static int killed(int a, int b, int c) {
+        int x = a - b;
+        if (c > 0) {
+            b = c;
+        }
+        return x + (a - b);
+    }
+
+    public static void main(String[] args) {
+        System.out.println(diamond(3, 4, 1));
+        System.out.println(diamond(3, 4, 0));
+        System.out.println(loop(2, 3, 4));
+        System.out.println(loop(2, 3, 0));
+        System.out.println(killed(5, 2, 1));
+        System.out.println(killed(5, 2, 0));
+    }
+}
@@ -0,0 +1,60 @@
+package test;
+
+/*
+ * Expressions computed more than once, for CommonSubexpressions to
+ * reuse, and writes in between that must stop it.  main prints what
+ * each method returns, and Subexpressions.extra.out keeps that output
+ * along with the "redundant quads reused" line of each method, from
+ *
+ *   bin/parun -Dflow.stats=true submit.OptimizeHarness --extra-credit \
+ *     --optimize test.Subexpressions --run-main test.Subexpressions
+ *
+ * fields must stay at 0.  The length read twice in arrays is left to
+ * GlobalValueNumbering, which runs first.
+ */
+public class Subexpressions {
+
+    int f;
+
+    static int arith(int a, int b) {
+        int x = a * b + 1;
+        int y = a * b + 2;
+        return x * y;
+    }
+
+    /* a * b is computed on both arms, so it is available after them. */
+    static int arms(int a, int b) {
+        int x;
+        if (a > b) {
+            x = a * b;
+        } else {
+            x = a * b + 1;
+        }
+        return x + a * b;
+    }
+
+    /* the second read of o.f follows a write of it. */
+    static int fields(Subexpressions o, int a) {
+        int x = o.f + a;
+        o.f = x;
+        return o.f + x;
+    }
+
+    /* the second read of arr[i] follows a store into arr. */
+    static int arrays(int[] arr, int i) {
+        int x = arr[i] + arr.length;
+        arr[0] = x;
+        return arr[i] + arr.length;
+    }
+
+    public static void main(String[] args) {
+        System.out.println(arith(3, 4));
+        System.out.println(arms(5, 2));
+        System.out.println(arms(2, 5));
+        Subexpressions o = new Subexpressions();
+        o.f = 4;
+        System.out.println(fields(o, 3));
+        System.out.println(arrays(new int[] { 1, 2, 3 }, 0));
+        System.out.println(arrays(new int[] { 1, 2, 3 }, 2));
+    }
+}
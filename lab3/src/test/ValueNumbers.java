@@ -0,0 +1,64 @@
+package test;
+
+/*
+ * Values computed twice in ways GlobalValueNumbering sees through:
+ * operands swapped, copied to other registers, or read from the same
+ * field or array length, with writes and calls in between where it
+ * must not.  ValueNumbers.extra.out keeps the "redundant quads
+ * removed" line of each method and the values main prints, from
+ *
+ *   bin/parun -Dflow.stats=true submit.OptimizeHarness --extra-credit \
+ *     --optimize test.ValueNumbers --run-main test.ValueNumbers
+ *
+ * loop must stay at 0, and fields at the two reads before the write.
+ */
+public class ValueNumbers {
+
+    int f;
+
+    static int commuted(int a, int b) {
+        int x = a + b;
+        int y = b + a;
+        return x * (a * b) - y * (b * a);
+    }
+
+    static int copied(int a, int b) {
+        int c = a;
+        int x = a - b;
+        int y = c - b;
+        return x + y;
+    }
+
+    /* the loop redefines a, so a + 1 inside it is not the first one. */
+    static int loop(int a, int n) {
+        int x = a + 1;
+        while (n > 0) {
+            a = a + 1;
+            n--;
+        }
+        return x + (a + 1);
+    }
+
+    static int fields(ValueNumbers o, int[] arr) {
+        int x = o.f + arr.length;
+        int y = o.f + arr.length;
+        o.f = y;
+        int z = o.f;
+        o.bump();
+        return x + y + z + o.f;
+    }
+
+    void bump() {
+        f++;
+    }
+
+    public static void main(String[] args) {
+        System.out.println(commuted(3, 4));
+        System.out.println(copied(7, 2));
+        System.out.println(loop(1, 3));
+        System.out.println(loop(1, 0));
+        ValueNumbers o = new ValueNumbers();
+        o.f = 2;
+        System.out.println(fields(o, new int[3]));
+    }
+}